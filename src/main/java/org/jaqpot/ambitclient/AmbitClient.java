@@ -31,14 +31,27 @@ package org.jaqpot.ambitclient;
 
 import java.io.Closeable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 import org.jaqpot.ambitclient.model.BundleData;
+import org.jaqpot.ambitclient.model.dataset.ColumnarDataset;
+import org.jaqpot.ambitclient.model.dataset.DataEntry;
 import org.jaqpot.ambitclient.model.dataset.Dataset;
 import org.jaqpot.ambitclient.model.dto.bundle.BundleProperties;
 import org.jaqpot.ambitclient.model.dto.bundle.BundleSubstances;
 import org.jaqpot.ambitclient.model.dto.study.Studies;
 
 /**
+ * Every operation can be given a {@link Deadline}. Each stage of the
+ * operation then gets the time that remains: requests and task waits
+ * time out at the deadline, and no request is sent once it has passed.
+ * Without a deadline, task waits use the timeout of their
+ * {@link Operation}. The operation
+ * fails with a
+ * {@link org.jaqpot.ambitclient.exception.DeadlineExceededException} when
+ * the deadline passes, and the work still in progress is cancelled.
+ *
  * @author Angelos Valsamis
  * @author Charalampos Chomenidis
  */
@@ -46,16 +59,50 @@ public interface AmbitClient extends Closeable {
 
     CompletableFuture<Dataset> generateMopacDescriptors(String pdbFile, String subjectId);
 
+    CompletableFuture<Dataset> generateMopacDescriptors(String pdbFile, String subjectId, Deadline deadline);
+
     CompletableFuture<Dataset> getDataset(String datasetId, String subjectId);
 
+    CompletableFuture<Dataset> getDataset(String datasetId, String subjectId, Deadline deadline);
+
+    CompletableFuture<Dataset> getDataset(String datasetId, String subjectId, int pageSize, int parallelism);
+
+    CompletableFuture<Dataset> getDataset(String datasetId, String subjectId, int pageSize, int parallelism, Deadline deadline);
+
+    CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer);
+
+    CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer, Deadline deadline);
+
+    CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer, Executor executor, Deadline deadline);
+
+    CompletableFuture<ColumnarDataset> getColumnarDataset(String datasetId, String subjectId);
+
+    CompletableFuture<ColumnarDataset> getColumnarDataset(String datasetId, String subjectId, Deadline deadline);
+
     CompletableFuture<Dataset> getDatasetStructures(String datasetId, String subjectId);
 
+    CompletableFuture<Dataset> getDatasetStructures(String datasetId, String subjectId, Deadline deadline);
+
     CompletableFuture<BundleSubstances> getBundleSubstances(String bundleId, String subjectId);
 
+    CompletableFuture<BundleSubstances> getBundleSubstances(String bundleId, String subjectId, Deadline deadline);
+
     CompletableFuture<BundleProperties> getBundleProperties(String bundleId, String subjectId);
 
+    CompletableFuture<BundleProperties> getBundleProperties(String bundleId, String subjectId, Deadline deadline);
+
     CompletableFuture<Studies> getSubstanceStudies(String substanceId, String subjectId);
 
+    CompletableFuture<Studies> getSubstanceStudies(String substanceId, String subjectId, Deadline deadline);
+
     CompletableFuture<String> createBundle(BundleData bundleData, String username, String subjectId);
 
+    CompletableFuture<String> createBundle(BundleData bundleData, String username, String subjectId, Deadline deadline);
+
+    /**
+     * Completes once the client has warmed up its connections to Ambit, or
+     * at once if it was built without a warm-up phase.
+     */
+    CompletableFuture<Void> whenReady();
+
 }
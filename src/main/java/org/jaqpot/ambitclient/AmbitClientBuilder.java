@@ -0,0 +1,413 @@
+/*
+*
+*   Ambit Client
+*
+*   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+*   with some other licence as will be specified therein.
+*
+*   Copyright (C) 2016 KinkyDesign
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*   Source code:
+*   The source code of Ambit Client is available on github at:
+*   https://github.com/KinkyDesign/AmbitClient
+*   All source files of Ambit Client that are stored on github are licensed
+*   with the aforementioned licence.
+*
+ */
+package org.jaqpot.ambitclient;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.AsyncHttpClientConfig;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+import org.jaqpot.ambitclient.cache.ResponseCache;
+import org.jaqpot.ambitclient.consumer.*;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.policy.CircuitBreaker;
+import org.jaqpot.ambitclient.policy.ConcurrencyLimiter;
+import org.jaqpot.ambitclient.policy.HedgePolicy;
+import org.jaqpot.ambitclient.policy.RequestPipeline;
+import org.jaqpot.ambitclient.policy.RequestPolicy;
+import org.jaqpot.ambitclient.policy.RetryPolicy;
+import org.jaqpot.ambitclient.serialize.Serializer;
+import org.jaqpot.ambitclient.task.TaskWatcher;
+import org.jaqpot.ambitclient.util.ConnectionWarmer;
+
+/**
+ * Builds an {@link AmbitClient} with its own, tunable HTTP client, or around
+ * an {@link AsyncHttpClient} borrowed from the application. The client
+ * closes the HTTP client and timer it creates, but leaves borrowed ones
+ * open.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class AmbitClientBuilder {
+
+    private String basePath;
+    private Serializer serializer;
+    private ResponseCache cache;
+    private AsyncHttpClient httpClient;
+    private Timer timer;
+
+    private int maxConnections = 20000;
+    private int maxConnectionsPerHost = 5000;
+    private int pooledConnectionIdleTimeout = 60000;
+    private int connectionTtl = -1;
+    private boolean keepAlive = true;
+    private int connectTimeout = 5000;
+    private int readTimeout = 60000;
+    private int requestTimeout = 60000;
+    private int ioThreadsCount = 0;
+    private int soSndBuf = -1;
+    private int soRcvBuf = -1;
+    private int httpClientCodecMaxChunkSize = 8192;
+    private boolean acceptAnyCertificate = true;
+    private boolean useNativeTransport;
+    private EventLoopGroup eventLoopGroup;
+    private int warmUpConnections;
+    private int sslSessionCacheSize;
+    private int sslSessionTimeout;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private boolean defaultConcurrencyLimiter = true;
+    private CircuitBreaker circuitBreaker;
+    private RetryPolicy.Builder retryPolicy;
+    private HedgePolicy.Builder hedgePolicy;
+    private final Map<Operation, Long> timeouts = new EnumMap<>(Operation.class);
+
+    public AmbitClientBuilder setBasePath(String basePath) {
+        this.basePath = basePath;
+        return this;
+    }
+
+    public AmbitClientBuilder setSerializer(Serializer serializer) {
+        this.serializer = serializer;
+        return this;
+    }
+
+    /**
+     * Sends read operations through the given response cache. Null, the
+     * default, disables caching.
+     */
+    public AmbitClientBuilder setResponseCache(ResponseCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Borrows an HTTP client from the application. It is not closed when
+     * the Ambit client is.
+     */
+    public AmbitClientBuilder setHttpClient(AsyncHttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    /**
+     * Borrows the timer used for task polling and, unless an HTTP client is
+     * borrowed as well, for request timeouts. It is not stopped when the
+     * Ambit client is closed.
+     */
+    public AmbitClientBuilder setTimer(Timer timer) {
+        this.timer = timer;
+        return this;
+    }
+
+    public AmbitClientBuilder setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public AmbitClientBuilder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    /**
+     * Sets how long in milliseconds an idle pooled connection is kept open.
+     */
+    public AmbitClientBuilder setPooledConnectionIdleTimeout(int pooledConnectionIdleTimeout) {
+        this.pooledConnectionIdleTimeout = pooledConnectionIdleTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the maximum lifetime in milliseconds of a pooled connection, or
+     * -1 for no limit.
+     */
+    public AmbitClientBuilder setConnectionTtl(int connectionTtl) {
+        this.connectionTtl = connectionTtl;
+        return this;
+    }
+
+    public AmbitClientBuilder setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    public AmbitClientBuilder setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    public AmbitClientBuilder setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    public AmbitClientBuilder setRequestTimeout(int requestTimeout) {
+        this.requestTimeout = requestTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the number of event loop threads, or 0 for the Netty default of
+     * twice the number of cores.
+     */
+    public AmbitClientBuilder setIoThreadsCount(int ioThreadsCount) {
+        this.ioThreadsCount = ioThreadsCount;
+        return this;
+    }
+
+    /**
+     * Sets the socket send buffer size in bytes, or -1 for the system
+     * default.
+     */
+    public AmbitClientBuilder setSoSndBuf(int soSndBuf) {
+        this.soSndBuf = soSndBuf;
+        return this;
+    }
+
+    /**
+     * Sets the socket receive buffer size in bytes, or -1 for the system
+     * default.
+     */
+    public AmbitClientBuilder setSoRcvBuf(int soRcvBuf) {
+        this.soRcvBuf = soRcvBuf;
+        return this;
+    }
+
+    /**
+     * Sets the largest body part in bytes handed to the response handlers.
+     */
+    public AmbitClientBuilder setHttpClientCodecMaxChunkSize(int httpClientCodecMaxChunkSize) {
+        this.httpClientCodecMaxChunkSize = httpClientCodecMaxChunkSize;
+        return this;
+    }
+
+    public AmbitClientBuilder setAcceptAnyCertificate(boolean acceptAnyCertificate) {
+        this.acceptAnyCertificate = acceptAnyCertificate;
+        return this;
+    }
+
+    /**
+     * Uses Netty's native epoll transport instead of NIO when it is
+     * available on this host, falling back to NIO when its library cannot
+     * be loaded.
+     */
+    public AmbitClientBuilder setUseNativeTransport(boolean useNativeTransport) {
+        this.useNativeTransport = useNativeTransport;
+        return this;
+    }
+
+    /**
+     * Runs the HTTP client on event loops borrowed from the application,
+     * which stay running when the Ambit client is closed. The transport
+     * follows the type of the group, and the thread count set here is
+     * ignored.
+     */
+    public AmbitClientBuilder setEventLoopGroup(EventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+        return this;
+    }
+
+    /**
+     * Resolves the Ambit host and opens this many keep-alive connections
+     * when the client is built; {@link AmbitClient#whenReady()} completes
+     * when they are open. 0, the default, disables the warm-up.
+     */
+    public AmbitClientBuilder setWarmUpConnections(int warmUpConnections) {
+        this.warmUpConnections = warmUpConnections;
+        return this;
+    }
+
+    /**
+     * Sets the number of TLS sessions kept for resumption, or 0 for the JDK
+     * default.
+     */
+    public AmbitClientBuilder setSslSessionCacheSize(int sslSessionCacheSize) {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+        return this;
+    }
+
+    /**
+     * Sets how long in seconds a cached TLS session may be resumed, or 0
+     * for the JDK default.
+     */
+    public AmbitClientBuilder setSslSessionTimeout(int sslSessionTimeout) {
+        this.sslSessionTimeout = sslSessionTimeout;
+        return this;
+    }
+
+    /**
+     * Sends every request through the given limiter instead of a default
+     * {@link ConcurrencyLimiter} of the client's own, which holds bursts
+     * back to the rate Ambit can serve. Null leaves concurrency bounded only
+     * by the connection pool.
+     */
+    public AmbitClientBuilder setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.defaultConcurrencyLimiter = false;
+        return this;
+    }
+
+    /**
+     * Fails requests to a host at once while the circuit breaker is open;
+     * task polling pauses until it lets requests through again. Null, the
+     * default, disables the circuit breaker.
+     */
+    public AmbitClientBuilder setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    /**
+     * Sets how long the client waits for the Ambit tasks of an operation
+     * called without a {@link Deadline}, instead of the operation's
+     * default timeout.
+     */
+    public AmbitClientBuilder setTimeout(Operation operation, long timeout, TimeUnit unit) {
+        this.timeouts.put(operation, unit.toMillis(timeout));
+        return this;
+    }
+
+    /**
+     * Sends idempotent requests again after transient failures, each retry
+     * passing through the limiter again. The policy is built on the
+     * client's timer. Null, the default, disables retries.
+     */
+    public AmbitClientBuilder setRetryPolicy(RetryPolicy.Builder retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Sends a second copy of the slowest reads to cut their tail latency.
+     * The policy is built on the client's timer. Null, the default,
+     * disables hedging.
+     */
+    public AmbitClientBuilder setHedgePolicy(HedgePolicy.Builder hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+        return this;
+    }
+
+    /**
+     * Returns whether Netty's native epoll transport can be loaded.
+     */
+    public static boolean isNativeTransportAvailable() {
+        try {
+            Class<?> epoll = Class.forName("io.netty.channel.epoll.Epoll");
+            return (Boolean) epoll.getMethod("isAvailable").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    public AmbitClient build() {
+        if (basePath == null || basePath.isEmpty()) {
+            throw new AmbitClientException("Field basePath cannot be empty.");
+        }
+        if (serializer == null) {
+            throw new AmbitClientException("Field serializer cannot be empty.");
+        }
+        Timer clientTimer = timer != null ? timer : newTimer();
+        boolean ownsClient = httpClient == null;
+        AsyncHttpClient client = ownsClient ? new DefaultAsyncHttpClient(createConfig(clientTimer)) : httpClient;
+
+        RequestPipeline pipeline = createPipeline(clientTimer);
+
+        DatasetResourceConsumer datasetConsumer = new DatasetResourceConsumer(serializer, client, basePath, cache, pipeline);
+        AlgorithmResourceConsumer algorithmConsumer = new AlgorithmResourceConsumer(serializer, client, basePath, pipeline);
+        BundleResourceConsumer bundleConsumer = new BundleResourceConsumer(serializer, client, basePath, cache, pipeline);
+        SubstanceResourceConsumer substanceConsumer = new SubstanceResourceConsumer(serializer, client, basePath, cache, pipeline);
+        TaskResourceConsumer taskConsumer = new TaskResourceConsumer(serializer, client, basePath, clientTimer, pipeline);
+        SubstanceOwnerResourceConsumer substanceOwnerResourceConsumer = new SubstanceOwnerResourceConsumer(serializer, client, basePath, cache, pipeline);
+        TaskWatcher taskWatcher = new TaskWatcher(taskConsumer, clientTimer);
+
+        AmbitClientImpl ambitClient = new AmbitClientImpl(datasetConsumer, taskWatcher, algorithmConsumer, bundleConsumer, substanceConsumer,
+                substanceOwnerResourceConsumer, client, ownsClient, clientTimer, timer == null, new EnumMap<>(timeouts));
+        if (warmUpConnections > 0) {
+            ambitClient.setReady(new ConnectionWarmer(client, basePath)
+                    .warmUp(warmUpConnections)
+                    .thenApply((opened) -> null));
+        }
+        return ambitClient;
+    }
+
+    private RequestPipeline createPipeline(Timer timer) {
+        List<RequestPolicy> policies = new ArrayList<>();
+        if (retryPolicy != null) {
+            policies.add(retryPolicy.build(timer));
+        }
+        if (hedgePolicy != null) {
+            policies.add(hedgePolicy.build(timer));
+        }
+        if (circuitBreaker != null) {
+            policies.add(circuitBreaker);
+        }
+        ConcurrencyLimiter limiter = defaultConcurrencyLimiter ? new ConcurrencyLimiter.Builder().build() : concurrencyLimiter;
+        if (limiter != null) {
+            policies.add(limiter);
+        }
+        return policies.isEmpty() ? null : new RequestPipeline(policies);
+    }
+
+    AsyncHttpClientConfig createConfig(Timer timer) {
+        return new DefaultAsyncHttpClientConfig.Builder()
+                .setNettyTimer(timer)
+                .setMaxConnections(maxConnections)
+                .setMaxConnectionsPerHost(maxConnectionsPerHost)
+                .setPooledConnectionIdleTimeout(pooledConnectionIdleTimeout)
+                .setConnectionTtl(connectionTtl)
+                .setKeepAlive(keepAlive)
+                .setConnectTimeout(connectTimeout)
+                .setReadTimeout(readTimeout)
+                .setRequestTimeout(requestTimeout)
+                .setIoThreadsCount(ioThreadsCount)
+                .setSoSndBuf(soSndBuf)
+                .setSoRcvBuf(soRcvBuf)
+                .setHttpClientCodecMaxChunkSize(httpClientCodecMaxChunkSize)
+                .setAcceptAnyCertificate(acceptAnyCertificate)
+                .setSslSessionCacheSize(sslSessionCacheSize)
+                .setSslSessionTimeout(sslSessionTimeout)
+                .setEventLoopGroup(eventLoopGroup)
+                .setUseNativeTransport(eventLoopGroup == null && useNativeTransport && isNativeTransportAvailable())
+                .build();
+    }
+
+    static Timer newTimer() {
+        return new HashedWheelTimer(new DefaultThreadFactory("ambit-client-timer", true));
+    }
+}
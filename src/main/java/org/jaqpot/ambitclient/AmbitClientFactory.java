@@ -29,31 +29,38 @@
  */
 package org.jaqpot.ambitclient;
 
+import io.netty.util.Timer;
 import org.asynchttpclient.AsyncHttpClient;
-import org.asynchttpclient.AsyncHttpClientConfig;
 import org.asynchttpclient.DefaultAsyncHttpClient;
-import org.asynchttpclient.DefaultAsyncHttpClientConfig;
-import org.jaqpot.ambitclient.consumer.*;
+import org.jaqpot.ambitclient.cache.ResponseCache;
 import org.jaqpot.ambitclient.serialize.Serializer;
 
 /**
+ * Creates clients that share one HTTP client and timer. Closing such a
+ * client leaves the shared HTTP client open for the others; use an
+ * {@link AmbitClientBuilder} for a client with its own connection settings.
+ *
  * @author Angelos Valsamis
  * @author Charalampos Chomenidis
  */
 public class AmbitClientFactory {
 
     public static AmbitClient createNewClient(String basePath, Serializer serializer) {
-        AsyncHttpClient httpClient = ClientFactory.INSTANCE.getClient();
-
-        DatasetResourceConsumer datasetConsumer = new DatasetResourceConsumer(serializer, httpClient, basePath);
-        AlgorithmResourceConsumer algorithmConsumer = new AlgorithmResourceConsumer(serializer, httpClient, basePath);
-        BundleResourceConsumer bundleConsumer = new BundleResourceConsumer(serializer, httpClient, basePath);
-        SubstanceResourceConsumer substanceConsumer = new SubstanceResourceConsumer(serializer, httpClient, basePath);
-        TaskResourceConsumer taskConsumer = new TaskResourceConsumer(serializer, httpClient, basePath);
-        SubstanceOwnerResourceConsumer substanceOwnerResourceConsumer = new SubstanceOwnerResourceConsumer(serializer, httpClient, basePath);
-        AmbitClient client = new AmbitClientImpl(datasetConsumer, taskConsumer, algorithmConsumer, bundleConsumer, substanceConsumer, substanceOwnerResourceConsumer, httpClient);
+        return createNewClient(basePath, serializer, null);
+    }
 
-        return client;
+    /**
+     * Creates a client whose read operations go through the given response
+     * cache. Passing null disables caching.
+     */
+    public static AmbitClient createNewClient(String basePath, Serializer serializer, ResponseCache cache) {
+        return new AmbitClientBuilder()
+                .setBasePath(basePath)
+                .setSerializer(serializer)
+                .setResponseCache(cache)
+                .setHttpClient(ClientFactory.INSTANCE.getClient())
+                .setTimer(ClientFactory.INSTANCE.getTimer())
+                .build();
     }
 
     private enum ClientFactory {
@@ -61,21 +68,23 @@ public class AmbitClientFactory {
         INSTANCE;
 
         private DefaultAsyncHttpClient s;
+        private Timer timer;
 
         ClientFactory() {
-            AsyncHttpClientConfig config = new DefaultAsyncHttpClientConfig.Builder()
+            timer = AmbitClientBuilder.newTimer();
+            s = new DefaultAsyncHttpClient(new AmbitClientBuilder()
                     .setPooledConnectionIdleTimeout(500)
-                    .setMaxConnections(20000)
-                    .setAcceptAnyCertificate(true)
-                    .setMaxConnectionsPerHost(5000).build();
-
-            s = new DefaultAsyncHttpClient(config);
+                    .createConfig(timer));
 
         }
 
         public AsyncHttpClient getClient() {
             return s;
         }
+
+        public Timer getTimer() {
+            return timer;
+        }
     }
 
     public AsyncHttpClient getClient() {
@@ -29,16 +29,23 @@
  */
 package org.jaqpot.ambitclient;
 
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import org.asynchttpclient.AsyncHttpClient;
 import org.jaqpot.ambitclient.consumer.*;
 import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.exception.DeadlineExceededException;
 import org.jaqpot.ambitclient.model.BundleData;
+import org.jaqpot.ambitclient.model.dataset.ColumnarDataset;
+import org.jaqpot.ambitclient.model.dataset.DataEntry;
 import org.jaqpot.ambitclient.model.dataset.Dataset;
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
 import org.jaqpot.ambitclient.model.dto.ambit.ProtocolCategory;
 import org.jaqpot.ambitclient.model.dto.bundle.BundleProperties;
 import org.jaqpot.ambitclient.model.dto.bundle.BundleSubstances;
 import org.jaqpot.ambitclient.model.dto.study.Studies;
+import org.jaqpot.ambitclient.task.TaskWatcher;
+import org.jaqpot.ambitclient.util.Futures;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -47,36 +54,89 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
+ * Cancelling a future returned by this client cancels whatever stage of
+ * the workflow is running: the HTTP request in flight is aborted, task
+ * polls are dropped and no later stage is started.
+ *
+ * A stage that waits for an Ambit task waits until the deadline given to
+ * the operation or, without one, for the timeout of its {@link Operation}.
+ *
  * @author Angelos Valsamis
  * @author Charalampos Chomenidis
  */
 public class AmbitClientImpl implements AmbitClient {
 
     private static final String MOPAC_COMMANDS = "PM3 NOINTER MMOK BONDS MULLIK GNORM=1.0 T=30.00M";
-    private static final long TIMEOUT = 5000L;
 
     private final DatasetResourceConsumer datasetConsumer;
-    private final TaskResourceConsumer taskConsumer;
+    private final TaskWatcher taskWatcher;
     private final AlgorithmResourceConsumer algorithmConsumer;
     private final BundleResourceConsumer bundleConsumer;
     private final SubstanceResourceConsumer substanceConsumer;
     private final SubstanceOwnerResourceConsumer substanceOwnerResourceConsumer;
     private final AsyncHttpClient client;
+    private final boolean ownsClient;
+    private final Timer timer;
+    private final boolean ownsTimer;
+    private final Map<Operation, Long> timeouts;
+    private volatile CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
 
     public AmbitClientImpl(DatasetResourceConsumer datasetConsumer, TaskResourceConsumer taskConsumer, AlgorithmResourceConsumer algorithmConsumer, BundleResourceConsumer bundleConsumer, SubstanceResourceConsumer substanceConsumer, SubstanceOwnerResourceConsumer substanceOwnerResourceConsumer, AsyncHttpClient client) {
+        this(datasetConsumer, taskConsumer, algorithmConsumer, bundleConsumer, substanceConsumer, substanceOwnerResourceConsumer, client, AmbitClientBuilder.newTimer());
+    }
+
+    private AmbitClientImpl(DatasetResourceConsumer datasetConsumer, TaskResourceConsumer taskConsumer, AlgorithmResourceConsumer algorithmConsumer, BundleResourceConsumer bundleConsumer, SubstanceResourceConsumer substanceConsumer, SubstanceOwnerResourceConsumer substanceOwnerResourceConsumer, AsyncHttpClient client, Timer timer) {
+        this(datasetConsumer, new TaskWatcher(taskConsumer, timer), algorithmConsumer, bundleConsumer, substanceConsumer, substanceOwnerResourceConsumer, client, true, timer);
+    }
+
+    public AmbitClientImpl(DatasetResourceConsumer datasetConsumer, TaskWatcher taskWatcher, AlgorithmResourceConsumer algorithmConsumer, BundleResourceConsumer bundleConsumer, SubstanceResourceConsumer substanceConsumer, SubstanceOwnerResourceConsumer substanceOwnerResourceConsumer, AsyncHttpClient client) {
+        this(datasetConsumer, taskWatcher, algorithmConsumer, bundleConsumer, substanceConsumer, substanceOwnerResourceConsumer, client, true, null);
+    }
+
+    /**
+     * Creates a client that closes the HTTP client only if it owns it, and
+     * stops {@code ownedTimer} on close. Without a timer, one is created
+     * for deadlines.
+     */
+    public AmbitClientImpl(DatasetResourceConsumer datasetConsumer, TaskWatcher taskWatcher, AlgorithmResourceConsumer algorithmConsumer, BundleResourceConsumer bundleConsumer, SubstanceResourceConsumer substanceConsumer, SubstanceOwnerResourceConsumer substanceOwnerResourceConsumer, AsyncHttpClient client, boolean ownsClient, Timer ownedTimer) {
+        this(datasetConsumer, taskWatcher, algorithmConsumer, bundleConsumer, substanceConsumer, substanceOwnerResourceConsumer, client, ownsClient,
+                ownedTimer, ownedTimer != null, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a client that enforces deadlines on {@code timer}, stopping it
+     * on close only if it owns it, or on a timer of its own if
+     * {@code timer} is null, and waits for the tasks of each
+     * operation for the given timeouts in milliseconds, or the operation's
+     * default timeout for operations without one.
+     */
+    public AmbitClientImpl(DatasetResourceConsumer datasetConsumer, TaskWatcher taskWatcher, AlgorithmResourceConsumer algorithmConsumer, BundleResourceConsumer bundleConsumer, SubstanceResourceConsumer substanceConsumer, SubstanceOwnerResourceConsumer substanceOwnerResourceConsumer, AsyncHttpClient client, boolean ownsClient, Timer timer, boolean ownsTimer, Map<Operation, Long> timeouts) {
         this.datasetConsumer = datasetConsumer;
-        this.taskConsumer = taskConsumer;
+        this.taskWatcher = taskWatcher;
         this.algorithmConsumer = algorithmConsumer;
         this.bundleConsumer = bundleConsumer;
         this.substanceConsumer = substanceConsumer;
         this.substanceOwnerResourceConsumer = substanceOwnerResourceConsumer;
         this.client = client;
+        this.ownsClient = ownsClient;
+        this.timer = timer != null ? timer : AmbitClientBuilder.newTimer();
+        this.ownsTimer = timer == null || ownsTimer;
+        this.timeouts = timeouts;
     }
 
     @Override
     public CompletableFuture<Dataset> generateMopacDescriptors(String pdbFile, String subjectId) {
+        return generateMopacDescriptors(pdbFile, subjectId, null);
+    }
+
+    @Override
+    public CompletableFuture<Dataset> generateMopacDescriptors(String pdbFile, String subjectId, Deadline deadline) {
         byte[] file;
         if (pdbFile.startsWith("data:")) {
             String base64pdb = pdbFile.split(",")[1];
@@ -92,108 +152,230 @@ public class AmbitClientImpl implements AmbitClient {
             }
         }
 
-        CompletableFuture<AmbitTask> result = datasetConsumer.createDatasetByPDB(file, subjectId);
-        return result
-                .thenCompose((t) -> taskConsumer.waitTask(t.getId(), TIMEOUT, subjectId))
-                .thenCompose((t) -> {
-                    String datasetURI = t.getResult();
-                    Map<String, List<String>> parameters = new HashMap<>();
-                    parameters.put("dataset_uri", Arrays.asList(datasetURI));
-                    parameters.put("mopac_commands", Arrays.asList(MOPAC_COMMANDS));
-                    return algorithmConsumer.train("ambit2.mopac.MopacOriginalStructure", parameters, subjectId);
-                })
-                .thenCompose(t -> taskConsumer.waitTask(t.getId(), TIMEOUT, subjectId))
-                .thenCompose(t -> datasetConsumer.getDatasetById(t.getResult().split("dataset/")[1], subjectId));
+        CompletableFuture<AmbitTask> result = datasetConsumer.createDatasetByPDB(file, subjectId, deadline);
+        CompletableFuture<AmbitTask> uploaded = Futures.thenCompose(result, (t) -> watch(t, Operation.DATASET_UPLOAD, deadline, subjectId));
+        CompletableFuture<AmbitTask> trained = Futures.thenCompose(uploaded, (t) -> {
+            String datasetURI = t.getResult();
+            Map<String, List<String>> parameters = new HashMap<>();
+            parameters.put("dataset_uri", Arrays.asList(datasetURI));
+            parameters.put("mopac_commands", Arrays.asList(MOPAC_COMMANDS));
+            return algorithmConsumer.train("ambit2.mopac.MopacOriginalStructure", parameters, subjectId, deadline);
+        });
+        CompletableFuture<AmbitTask> calculated = Futures.thenCompose(trained, t -> watch(t, Operation.DESCRIPTOR_CALCULATION, deadline, subjectId));
+        return withDeadline(Futures.thenCompose(calculated,
+                t -> datasetConsumer.getDatasetById(t.getResult().split("dataset/")[1], subjectId, deadline)), deadline);
     }
 
     @Override
     public CompletableFuture<String> createBundle(BundleData bundleData, String username, String subjectId) {
+        return createBundle(bundleData, username, subjectId, null);
+    }
+
+    @Override
+    public CompletableFuture<String> createBundle(BundleData bundleData, String username, String subjectId, Deadline deadline) {
         String substanceOwner = bundleData.getSubstanceOwner();
         if (substanceOwner == null || substanceOwner.isEmpty()) {
             throw new AmbitClientException("Field substanceOwner cannot be empty.");
         }
 
-        return bundleConsumer.createBundle(bundleData.getDescription(), username, substanceOwner, subjectId)
-                .thenCompose(t -> taskConsumer.waitTask(t.getId(), TIMEOUT, subjectId))
-                .thenApply(t -> {
-                    bundleData.setBundleUri(t.getResult());
-                    bundleData.setBundleId(t.getResult().split("bundle/")[1]);
-                    return bundleData;
-                })
-                .thenCompose((bd) -> {
-                    if (bd.getSubstances() == null || bd.getSubstances().isEmpty()) {
-                        return substanceOwnerResourceConsumer.getOwnerSubstances(bd.getSubstanceOwner(), subjectId);
-                    }
-                    return CompletableFuture.supplyAsync(() -> bd.getSubstances());
-                })
-                .thenApply((substances) -> {
-                    bundleData.setSubstances(substances);
-                    return bundleData;
-                })
-                .thenCompose((BundleData bd) -> {
-                    List<CompletableFuture<AmbitTask>> completableFutureList = new LinkedList<>();
-                    for (String substance : bd.getSubstances()) {
-                        completableFutureList.add(bundleConsumer.putSubstanceByBundleId(bd.getBundleId(), substance, subjectId)
-                                .thenCompose(t -> taskConsumer.waitTask(t.getId(), TIMEOUT, subjectId)));
-                    }
-                    return CompletableFuture.allOf((completableFutureList.toArray(new CompletableFuture[completableFutureList.size()])));
-                })
-                .thenCompose((Void v) -> {
-                    Map<String, List<String>> properties = bundleData.getProperties();
-                    if (properties == null || properties.isEmpty()) {
-                        properties = new HashMap<>();
-                        for (ProtocolCategory category : ProtocolCategory.values()) {
-                            String topCategoryName = category.getTopCategory();
-                            String categoryName = category.name();
-
-                            if (properties.containsKey(topCategoryName)) {
-                                List<String> categoryValues = properties.get(topCategoryName);
-                                categoryValues.add(categoryName);
-                                properties.put(topCategoryName, categoryValues);
-                            } else {
-                                List<String> categoryValues = new ArrayList<>();
-                                categoryValues.add(categoryName);
-                                properties.put(topCategoryName, categoryValues);
-                            }
-                        }
-                    }
-                    List<CompletableFuture<AmbitTask>> completableFutureList = new LinkedList<>();
-                    for (String topCategory : properties.keySet()) {
-                        List<String> subCategories = properties.get(topCategory);
-                        for (String subCategory : subCategories) {
-                            completableFutureList.add(bundleConsumer.putPropertyByBundleId(bundleData.getBundleId(), topCategory, subCategory, subjectId)
-                                    .thenCompose(s -> taskConsumer.waitTask(s.getId(), TIMEOUT, subjectId)));
-                        }
+        CompletableFuture<AmbitTask> created = Futures.thenCompose(
+                bundleConsumer.createBundle(bundleData.getDescription(), username, substanceOwner, subjectId, deadline),
+                t -> watch(t, Operation.BUNDLE_CREATION, deadline, subjectId));
+        CompletableFuture<BundleData> registered = Futures.thenApply(created, t -> {
+            bundleData.setBundleUri(t.getResult());
+            bundleData.setBundleId(t.getResult().split("bundle/")[1]);
+            bundleConsumer.invalidateBundle(bundleData.getBundleId());
+            return bundleData;
+        });
+        CompletableFuture<List<String>> substances = Futures.thenCompose(registered, (bd) -> {
+            if (bd.getSubstances() == null || bd.getSubstances().isEmpty()) {
+                return substanceOwnerResourceConsumer.getOwnerSubstances(bd.getSubstanceOwner(), subjectId, deadline);
+            }
+            return CompletableFuture.completedFuture(bd.getSubstances());
+        });
+        CompletableFuture<Void> substancesAdded = Futures.thenCompose(substances, (list) -> {
+            bundleData.setSubstances(list);
+            List<CompletableFuture<AmbitTask>> completableFutureList = new LinkedList<>();
+            for (String substance : bundleData.getSubstances()) {
+                completableFutureList.add(Futures.thenCompose(bundleConsumer.putSubstanceByBundleId(bundleData.getBundleId(), substance, subjectId, deadline),
+                        t -> watchBundleUpdate(t, Operation.BUNDLE_SUBSTANCE_UPDATE, bundleData.getBundleId(), deadline, subjectId)));
+            }
+            return Futures.allOf(completableFutureList);
+        });
+        CompletableFuture<Void> propertiesAdded = Futures.thenCompose(substancesAdded, (Void v) -> {
+            Map<String, List<String>> properties = bundleData.getProperties();
+            if (properties == null || properties.isEmpty()) {
+                properties = new HashMap<>();
+                for (ProtocolCategory category : ProtocolCategory.values()) {
+                    String topCategoryName = category.getTopCategory();
+                    String categoryName = category.name();
+
+                    if (properties.containsKey(topCategoryName)) {
+                        List<String> categoryValues = properties.get(topCategoryName);
+                        categoryValues.add(categoryName);
+                        properties.put(topCategoryName, categoryValues);
+                    } else {
+                        List<String> categoryValues = new ArrayList<>();
+                        categoryValues.add(categoryName);
+                        properties.put(topCategoryName, categoryValues);
                     }
-                    return CompletableFuture.allOf((completableFutureList.toArray(new CompletableFuture[completableFutureList.size()])));
-                })
-                .thenApply((Void v) -> bundleData.getBundleUri());
+                }
+            }
+            List<CompletableFuture<AmbitTask>> completableFutureList = new LinkedList<>();
+            for (String topCategory : properties.keySet()) {
+                List<String> subCategories = properties.get(topCategory);
+                for (String subCategory : subCategories) {
+                    completableFutureList.add(Futures.thenCompose(bundleConsumer.putPropertyByBundleId(bundleData.getBundleId(), topCategory, subCategory, subjectId, deadline),
+                            s -> watchBundleUpdate(s, Operation.BUNDLE_PROPERTY_UPDATE, bundleData.getBundleId(), deadline, subjectId)));
+                }
+            }
+            return Futures.allOf(completableFutureList);
+        });
+        CompletableFuture<Void> done = Futures.whenComplete(propertiesAdded, (v, ex) -> {
+            if (bundleData.getBundleId() != null) {
+                bundleConsumer.invalidateBundle(bundleData.getBundleId());
+            }
+        });
+        return withDeadline(Futures.thenApply(done, (Void v) -> bundleData.getBundleUri()), deadline);
     }
 
     @Override
     public CompletableFuture<Dataset> getDataset(String datasetId, String subjectId) {
-        return datasetConsumer.getDatasetById(datasetId, subjectId);
+        return getDataset(datasetId, subjectId, null);
+    }
+
+    @Override
+    public CompletableFuture<Dataset> getDataset(String datasetId, String subjectId, Deadline deadline) {
+        return withDeadline(datasetConsumer.getDatasetById(datasetId, subjectId, deadline), deadline);
+    }
+
+    @Override
+    public CompletableFuture<Dataset> getDataset(String datasetId, String subjectId, int pageSize, int parallelism) {
+        return getDataset(datasetId, subjectId, pageSize, parallelism, null);
+    }
+
+    @Override
+    public CompletableFuture<Dataset> getDataset(String datasetId, String subjectId, int pageSize, int parallelism, Deadline deadline) {
+        return withDeadline(datasetConsumer.getDatasetById(datasetId, subjectId, pageSize, parallelism, deadline), deadline);
+    }
+
+    @Override
+    public CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer) {
+        return streamDataset(datasetId, subjectId, rowConsumer, null);
+    }
+
+    @Override
+    public CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer, Deadline deadline) {
+        return withDeadline(datasetConsumer.streamDataset(datasetId, subjectId, rowConsumer, deadline), deadline);
+    }
+
+    @Override
+    public CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer, Executor executor, Deadline deadline) {
+        return withDeadline(datasetConsumer.streamDataset(datasetId, subjectId, rowConsumer, executor, deadline), deadline);
+    }
+
+    @Override
+    public CompletableFuture<ColumnarDataset> getColumnarDataset(String datasetId, String subjectId) {
+        return getColumnarDataset(datasetId, subjectId, null);
+    }
+
+    @Override
+    public CompletableFuture<ColumnarDataset> getColumnarDataset(String datasetId, String subjectId, Deadline deadline) {
+        return withDeadline(datasetConsumer.getColumnarDatasetById(datasetId, subjectId, deadline), deadline);
     }
 
     @Override
     public CompletableFuture<Dataset> getDatasetStructures(String datasetId, String subjectId) {
-        return datasetConsumer.getStructuresByDatasetId(datasetId, subjectId);
+        return getDatasetStructures(datasetId, subjectId, null);
+    }
+
+    @Override
+    public CompletableFuture<Dataset> getDatasetStructures(String datasetId, String subjectId, Deadline deadline) {
+        return withDeadline(datasetConsumer.getStructuresByDatasetId(datasetId, subjectId, deadline), deadline);
     }
 
     @Override
     public CompletableFuture<BundleSubstances> getBundleSubstances(String bundleId, String subjectId) {
-        return bundleConsumer.getSubstancesByBundleId(bundleId, subjectId);
+        return getBundleSubstances(bundleId, subjectId, null);
+    }
 
+    @Override
+    public CompletableFuture<BundleSubstances> getBundleSubstances(String bundleId, String subjectId, Deadline deadline) {
+        return withDeadline(bundleConsumer.getSubstancesByBundleId(bundleId, subjectId, deadline), deadline);
     }
 
     @Override
     public CompletableFuture<Studies> getSubstanceStudies(String substanceId, String subjectId) {
-        return substanceConsumer.getStudiesBySubstanceId(substanceId, subjectId);
+        return getSubstanceStudies(substanceId, subjectId, null);
+    }
+
+    @Override
+    public CompletableFuture<Studies> getSubstanceStudies(String substanceId, String subjectId, Deadline deadline) {
+        return withDeadline(substanceConsumer.getStudiesBySubstanceId(substanceId, subjectId, deadline), deadline);
     }
 
     @Override
     public CompletableFuture<BundleProperties> getBundleProperties(String bundleId, String subjectId) {
-        return bundleConsumer.getPropertiesByBundleId(bundleId, subjectId);
+        return getBundleProperties(bundleId, subjectId, null);
+    }
+
+    @Override
+    public CompletableFuture<BundleProperties> getBundleProperties(String bundleId, String subjectId, Deadline deadline) {
+        return withDeadline(bundleConsumer.getPropertiesByBundleId(bundleId, subjectId, deadline), deadline);
+    }
+
+    /**
+     * Waits for a task of the given operation until the deadline or,
+     * without one, for the operation's timeout.
+     */
+    private CompletableFuture<AmbitTask> watch(AmbitTask task, Operation operation, Deadline deadline, String subjectId) {
+        if (deadline == null) {
+            return taskWatcher.watch(task, timeouts.getOrDefault(operation, operation.getDefaultTimeoutMillis()), subjectId);
+        }
+        if (deadline.isExpired()) {
+            CompletableFuture<AmbitTask> expired = new CompletableFuture<>();
+            expired.completeExceptionally(new DeadlineExceededException("Deadline passed before waiting for Ambit task:" + task.getId()));
+            return expired;
+        }
+        return taskWatcher.watch(task, deadline, subjectId);
+    }
+
+    /**
+     * Waits for the task of a bundle update and drops the bundle's cached
+     * reads once Ambit has applied it, since reads made while the task ran
+     * may have cached the bundle as it was.
+     */
+    private CompletableFuture<AmbitTask> watchBundleUpdate(AmbitTask task, Operation operation, String bundleId, Deadline deadline, String subjectId) {
+        return Futures.whenComplete(watch(task, operation, deadline, subjectId), (t, ex) -> bundleConsumer.invalidateBundle(bundleId));
+    }
+
+    /**
+     * Fails the operation when its deadline passes, cancelling whatever
+     * stage is still running. A stage that failed by timing out at the
+     * deadline is reported as a missed deadline as well.
+     */
+    private <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future, Deadline deadline) {
+        if (deadline == null) {
+            return future;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Timeout timeout = timer.newTimeout((t) -> {
+            if (result.completeExceptionally(new DeadlineExceededException("Deadline passed before the operation completed"))) {
+                future.cancel(true);
+            }
+        }, Math.max(0, deadline.remaining(TimeUnit.MILLISECONDS)), TimeUnit.MILLISECONDS);
+        future.whenComplete((value, ex) -> {
+            timeout.cancel();
+            Throwable failure = ex instanceof CompletionException ? ex.getCause() : ex;
+            if (failure != null && !(failure instanceof DeadlineExceededException) && deadline.isExpired()) {
+                result.completeExceptionally(new DeadlineExceededException("Deadline passed before the operation completed", failure));
+            } else if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(value);
+            }
+        });
+        return Futures.propagateCancel(result, future);
     }
 
     private byte[] inputStreamToByteArray(InputStream is) throws IOException {
@@ -211,8 +393,23 @@ public class AmbitClientImpl implements AmbitClient {
         return buffer.toByteArray();
     }
 
+    @Override
+    public CompletableFuture<Void> whenReady() {
+        return ready;
+    }
+
+    void setReady(CompletableFuture<Void> ready) {
+        this.ready = ready;
+    }
+
     @Override
     public void close() throws IOException {
-        this.client.close();
+        this.taskWatcher.close();
+        if (ownsClient) {
+            this.client.close();
+        }
+        if (ownsTimer) {
+            timer.stop();
+        }
     }
 }
@@ -0,0 +1,70 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which an operation must be complete. Every stage of
+ * the operation gets the time that remains, and requests are no longer
+ * sent once it has passed.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public final class Deadline {
+
+    private final long nanoTime;
+
+    private Deadline(long nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    public static Deadline after(long duration, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * Returns the time left before the deadline, which is zero or negative
+     * once it has passed.
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(nanoTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return nanoTime - System.nanoTime() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline[" + remaining(TimeUnit.MILLISECONDS) + "ms left]";
+    }
+}
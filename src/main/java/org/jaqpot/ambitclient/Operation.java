@@ -0,0 +1,60 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of the client's workflows that wait for an Ambit task. Each
+ * has its own default timeout, which can be changed with
+ * {@link AmbitClientBuilder#setTimeout(Operation, long, TimeUnit)} and
+ * applies to calls made without a {@link Deadline}.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public enum Operation {
+
+    DATASET_UPLOAD(2, TimeUnit.MINUTES),
+    DESCRIPTOR_CALCULATION(15, TimeUnit.MINUTES),
+    BUNDLE_CREATION(30, TimeUnit.SECONDS),
+    BUNDLE_SUBSTANCE_UPDATE(1, TimeUnit.MINUTES),
+    BUNDLE_PROPERTY_UPDATE(1, TimeUnit.MINUTES);
+
+    private final long defaultTimeoutMillis;
+
+    Operation(long defaultTimeout, TimeUnit unit) {
+        this.defaultTimeoutMillis = unit.toMillis(defaultTimeout);
+    }
+
+    public long getDefaultTimeoutMillis() {
+        return defaultTimeoutMillis;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+
+/**
+ * Identifies a cached response by resource type, resolved path and the
+ * caller's identity. The identity is a digest of the subject id, so that
+ * tokens are never kept as cache keys.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public final class CacheKey {
+
+    private final ResourceType type;
+    private final String path;
+    private final String identity;
+    private final int hash;
+
+    private CacheKey(ResourceType type, String path, String identity) {
+        this.type = type;
+        this.path = path;
+        this.identity = identity;
+        this.hash = Objects.hash(type, path, identity);
+    }
+
+    public static CacheKey of(ResourceType type, String path, String subjectId) {
+        return new CacheKey(type, path, identity(subjectId));
+    }
+
+    public ResourceType getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    private static String identity(String subjectId) {
+        if (subjectId == null || subjectId.isEmpty()) {
+            return "";
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(subjectId.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final CacheKey other = (CacheKey) obj;
+        return type == other.type
+                && Objects.equals(path, other.path)
+                && Objects.equals(identity, other.identity);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheKey{" + "type=" + type + ", path=" + path + '}';
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.cache;
+
+/**
+ * A snapshot of the counters of a {@link ResponseCache}.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public final class CacheStats {
+
+    private final long hits;
+    private final long staleHits;
+    private final long misses;
+    private final long evictions;
+    private final long revalidations;
+    private final long entries;
+    private final long weight;
+
+    CacheStats(long hits, long staleHits, long misses, long evictions, long revalidations, long entries, long weight) {
+        this.hits = hits;
+        this.staleHits = staleHits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.revalidations = revalidations;
+        this.entries = entries;
+        this.weight = weight;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of reads served from expired entries while they
+     * were being refreshed.
+     */
+    public long getStaleHits() {
+        return staleHits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of reads answered with {@code 304 Not Modified}.
+     */
+    public long getRevalidations() {
+        return revalidations;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public double getHitRate() {
+        long requests = hits + staleHits + misses;
+        return requests == 0 ? 0 : (double) (hits + staleHits) / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" + "hits=" + hits + ", staleHits=" + staleHits + ", misses=" + misses + ", evictions=" + evictions + ", revalidations=" + revalidations + ", entries=" + entries + ", weight=" + weight + '}';
+    }
+}
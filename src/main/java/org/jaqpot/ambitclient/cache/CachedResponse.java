@@ -0,0 +1,100 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.cache;
+
+/**
+ * A parsed response held by the {@link ResponseCache}, together with the
+ * validators Ambit sent with it.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public final class CachedResponse {
+
+    private final Object value;
+    private final long weight;
+    private final long expiresAt;
+    private final long staleUntil;
+    private final String etag;
+    private final String lastModified;
+
+    CachedResponse(Object value, long weight, long expiresAt, long staleUntil, String etag, String lastModified) {
+        this.value = value;
+        this.weight = weight;
+        this.expiresAt = expiresAt;
+        this.staleUntil = staleUntil;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getStaleUntil() {
+        return staleUntil;
+    }
+
+    public boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    /**
+     * Returns whether the response has expired but may still be served while
+     * a fresh copy is fetched in the background.
+     */
+    public boolean isServableStale(long now) {
+        return now >= expiresAt && now < staleUntil;
+    }
+
+    /**
+     * Returns whether the response can be revalidated with a conditional
+     * request once it is no longer fresh.
+     */
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+}
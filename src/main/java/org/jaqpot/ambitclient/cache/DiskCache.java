@@ -0,0 +1,633 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.cache;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+
+/**
+ * A persistent tier for the {@link ResponseCache} that keeps raw response
+ * bodies in append-only, memory-mapped segment files.
+ *
+ * Each record holds the cache key, the freshness and validators of the
+ * response, a CRC32 of the body and the body itself. An index file maps
+ * keys to records and is written on {@link #close()}; records appended
+ * after the last index was written are recovered by scanning the segments
+ * when the cache is opened again. Once the segments exceed the size
+ * limit, the oldest segment is dropped in the background. Reads return
+ * slices of the mapped segments, so a hit is parsed without copying the
+ * body.
+ *
+ * Removals take effect at once and are also appended, by the same writer
+ * as the responses, as tombstone records, so that a rescan of the segments
+ * cannot bring removed entries back. Every put and removal is numbered
+ * when it is made, and a response still waiting to be written when its key
+ * is removed is dropped rather than written after the removal.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class DiskCache implements Closeable {
+
+    private static final int RECORD_MAGIC = 0xA3B1C0DE;
+    private static final int TOMBSTONE_MAGIC = 0xA3B1DEAD;
+    private static final int INDEX_MAGIC = 0xA3B11D3C;
+    private static final int REMOVE_KEY = 0;
+    private static final int REMOVE_RESOURCE = 1;
+    private static final int REMOVE_ALL = 2;
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final String INDEX_FILE = "index.dat";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final int segmentSize;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ExecutorService writer;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Object indexLock = new Object();
+    private final Map<String, Long> removedAt = new HashMap<>();
+    private long clearedAt = -1;
+    private Segment active;
+
+    public DiskCache(Path directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, (int) Math.min(DEFAULT_SEGMENT_SIZE, Math.max(1024 * 1024, maxBytes / 8)));
+    }
+
+    public DiskCache(Path directory, long maxBytes, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        open();
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ambit-client-disk-cache");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the stored response for the key, or null if there is none or
+     * its checksum does not match.
+     */
+    public Entry get(CacheKey key) {
+        String k = keyString(key);
+        Location location = index.get(k);
+        if (location == null) {
+            return null;
+        }
+        Segment segment = segments.get(location.segment);
+        if (segment == null) {
+            index.remove(k, location);
+            return null;
+        }
+        ByteBuffer record = segment.slice(location.offset, location.length);
+        Entry entry = readRecord(record);
+        if (entry == null || !k.equals(entry.key)) {
+            index.remove(k, location);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Appends a response in the background. Bodies larger than a segment are
+     * not stored, and nothing is stored once the cache is closed.
+     */
+    public void put(CacheKey key, List<ByteBuffer> body, long expiresAt, long staleUntil, String etag, String lastModified) {
+        String k = keyString(key);
+        long seq = sequence.incrementAndGet();
+        write(() -> {
+            try {
+                append(seq, k, body, expiresAt, staleUntil, etag, lastModified);
+            } catch (IOException ex) {
+                index.remove(k);
+            }
+        });
+    }
+
+    public void remove(CacheKey key) {
+        remove(REMOVE_KEY, keyString(key));
+    }
+
+    /**
+     * Forgets the entries of a resource stored for any identity.
+     */
+    public void removeAll(ResourceType type, String path) {
+        remove(REMOVE_RESOURCE, resourcePrefix(type, path));
+    }
+
+    public void clear() {
+        remove(REMOVE_ALL, "");
+    }
+
+    public long size() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+            writeIndex();
+        }
+    }
+
+    /**
+     * Drops entries from the index at once, drops the responses still
+     * waiting to be written for them, and queues a tombstone that makes the
+     * removal durable.
+     */
+    private void remove(int kind, String target) {
+        long seq = sequence.incrementAndGet();
+        synchronized (indexLock) {
+            if (kind == REMOVE_ALL) {
+                clearedAt = seq;
+                removedAt.clear();
+            } else {
+                removedAt.put(target, seq);
+            }
+            apply(kind, target);
+        }
+        Runnable tombstone = () -> {
+            try {
+                appendTombstone(kind, target);
+            } catch (IOException ex) {
+                // the removal holds until the cache is reopened
+            }
+            synchronized (indexLock) {
+                removedAt.remove(target, seq);
+            }
+        };
+        if (!write(tombstone)) {
+            synchronized (indexLock) {
+                removedAt.remove(target, seq);
+            }
+        }
+    }
+
+    /**
+     * Queues a write, unless the cache is closed, in which case the write
+     * is dropped. Returns whether it was queued.
+     */
+    private boolean write(Runnable task) {
+        try {
+            writer.execute(task);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    private void apply(int kind, String target) {
+        if (kind == REMOVE_KEY) {
+            index.remove(target);
+        } else if (kind == REMOVE_RESOURCE) {
+            index.keySet().removeIf(key -> key.startsWith(target));
+        } else {
+            index.clear();
+        }
+    }
+
+    /**
+     * Returns whether a response numbered {@code seq} was removed before it
+     * could be written. Must be called with the index lock held.
+     */
+    private boolean isRemoved(long seq, String key) {
+        if (seq <= clearedAt) {
+            return true;
+        }
+        Long keyRemoved = removedAt.get(key);
+        Long resourceRemoved = removedAt.get(key.substring(0, key.lastIndexOf('\n') + 1));
+        return (keyRemoved != null && seq <= keyRemoved) || (resourceRemoved != null && seq <= resourceRemoved);
+    }
+
+    private synchronized void append(long seq, String key, List<ByteBuffer> body, long expiresAt, long staleUntil, String etag, String lastModified) throws IOException {
+        synchronized (indexLock) {
+            if (isRemoved(seq, key)) {
+                return;
+            }
+        }
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] e = etag == null ? null : etag.getBytes(StandardCharsets.UTF_8);
+        byte[] lm = lastModified == null ? null : lastModified.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        long bodyLength = 0;
+        for (ByteBuffer part : body) {
+            bodyLength += part.remaining();
+            crc.update(part.duplicate());
+        }
+        long length = 4 + 4 + 8 + 8 + 8
+                + 4 + k.length
+                + 4 + (e == null ? 0 : e.length)
+                + 4 + (lm == null ? 0 : lm.length)
+                + 4 + bodyLength;
+        if (length > segmentSize) {
+            return;
+        }
+        if (active == null || active.position + length > segmentSize) {
+            roll();
+        }
+        ByteBuffer out = active.buffer.duplicate();
+        int offset = active.position;
+        out.position(offset);
+        out.putInt(RECORD_MAGIC);
+        out.putInt((int) length);
+        out.putLong(crc.getValue());
+        out.putLong(expiresAt);
+        out.putLong(staleUntil);
+        putBytes(out, k);
+        putBytes(out, e);
+        putBytes(out, lm);
+        out.putInt((int) bodyLength);
+        for (ByteBuffer part : body) {
+            out.put(part.duplicate());
+        }
+        active.position = offset + (int) length;
+        synchronized (indexLock) {
+            if (!isRemoved(seq, key)) {
+                index.put(key, new Location(active.id, offset, (int) length));
+            }
+        }
+    }
+
+    private synchronized void appendTombstone(int kind, String target) throws IOException {
+        byte[] t = target.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + 4 + 8 + 4 + 4 + t.length;
+        if (active == null || active.position + length > segmentSize) {
+            roll();
+        }
+        ByteBuffer out = active.buffer.duplicate();
+        int offset = active.position;
+        out.position(offset);
+        out.putInt(TOMBSTONE_MAGIC);
+        out.putInt(length);
+        out.putLong(tombstoneChecksum(kind, t));
+        out.putInt(kind);
+        putBytes(out, t);
+        active.position = offset + length;
+    }
+
+    private void roll() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = Segment.open(segmentPath(id), id, segmentSize);
+        segments.put(id, active);
+        if (size() > maxBytes) {
+            write(this::evict);
+        }
+    }
+
+    /**
+     * Drops the oldest segments until the cache fits its size limit again.
+     */
+    private synchronized void evict() {
+        while (size() > maxBytes && segments.size() > 1) {
+            Map.Entry<Integer, Segment> oldest = segments.pollFirstEntry();
+            int id = oldest.getKey();
+            index.values().removeIf(location -> location.segment == id);
+            try {
+                Files.deleteIfExists(segmentPath(id));
+            } catch (IOException ex) {
+                // the file is no longer referenced and will be retried on the next start
+            }
+        }
+        try {
+            writeIndex();
+        } catch (IOException ex) {
+            // the segments are rescanned on the next start
+        }
+    }
+
+    private void open() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    // not one of our segments
+                }
+            }
+        }
+        for (int id : ids) {
+            segments.put(id, Segment.open(segmentPath(id), id, segmentSize));
+        }
+        int scanSegment = segments.isEmpty() ? 0 : segments.firstKey();
+        int scanOffset = 0;
+        Path indexPath = directory.resolve(INDEX_FILE);
+        if (Files.exists(indexPath)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(indexPath))) {
+                if (in.readInt() == INDEX_MAGIC) {
+                    int lastSegment = in.readInt();
+                    int lastOffset = in.readInt();
+                    int count = in.readInt();
+                    Map<String, Location> loaded = new HashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        String key = in.readUTF();
+                        Location location = new Location(in.readInt(), in.readInt(), in.readInt());
+                        if (segments.containsKey(location.segment)) {
+                            loaded.put(key, location);
+                        }
+                    }
+                    index.putAll(loaded);
+                    scanSegment = lastSegment;
+                    scanOffset = lastOffset;
+                }
+            } catch (IOException ex) {
+                index.clear();
+                scanSegment = segments.isEmpty() ? 0 : segments.firstKey();
+                scanOffset = 0;
+            }
+        }
+        for (Segment segment : segments.values()) {
+            if (segment.id < scanSegment) {
+                continue;
+            }
+            segment.position = scan(segment, segment.id == scanSegment ? scanOffset : 0);
+        }
+        active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+    }
+
+    /**
+     * Indexes the records of a segment from the given offset and returns the
+     * offset just past the last valid record.
+     */
+    private int scan(Segment segment, int offset) {
+        while (offset + 8 <= segmentSize) {
+            ByteBuffer header = segment.slice(offset, 8);
+            int magic = header.getInt();
+            if (magic != RECORD_MAGIC && magic != TOMBSTONE_MAGIC) {
+                break;
+            }
+            int length = header.getInt();
+            if (length <= 0 || offset + length > segmentSize) {
+                break;
+            }
+            if (magic == TOMBSTONE_MAGIC) {
+                if (!readTombstone(segment.slice(offset, length))) {
+                    break;
+                }
+            } else {
+                Entry entry = readRecord(segment.slice(offset, length));
+                if (entry == null) {
+                    break;
+                }
+                index.put(entry.key, new Location(segment.id, offset, length));
+            }
+            offset += length;
+        }
+        return offset;
+    }
+
+    private void writeIndex() throws IOException {
+        Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(active == null ? 0 : active.id);
+            out.writeInt(active == null ? 0 : active.position);
+            List<Map.Entry<String, Location>> entries = new ArrayList<>(index.entrySet());
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Location> e : entries) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().segment);
+                out.writeInt(e.getValue().offset);
+                out.writeInt(e.getValue().length);
+            }
+        }
+        Files.move(tmp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Entry readRecord(ByteBuffer record) {
+        try {
+            if (record.getInt() != RECORD_MAGIC) {
+                return null;
+            }
+            record.getInt();
+            long checksum = record.getLong();
+            long expiresAt = record.getLong();
+            long staleUntil = record.getLong();
+            String key = getString(record);
+            String etag = getString(record);
+            String lastModified = getString(record);
+            int bodyLength = record.getInt();
+            ByteBuffer body = record.slice();
+            body.limit(bodyLength);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+            return new Entry(key, body, expiresAt, staleUntil, etag, lastModified);
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies a tombstone found while scanning. Returns false if it is
+     * damaged.
+     */
+    private boolean readTombstone(ByteBuffer record) {
+        try {
+            record.getInt();
+            record.getInt();
+            long checksum = record.getLong();
+            int kind = record.getInt();
+            int length = record.getInt();
+            byte[] target = new byte[length];
+            record.get(target);
+            if (tombstoneChecksum(kind, target) != checksum) {
+                return false;
+            }
+            apply(kind, new String(target, StandardCharsets.UTF_8));
+            return true;
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private static long tombstoneChecksum(int kind, byte[] target) {
+        CRC32 crc = new CRC32();
+        crc.update(kind);
+        crc.update(target);
+        return crc.getValue();
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String keyString(CacheKey key) {
+        return resourcePrefix(key.getType(), key.getPath()) + key.getIdentity();
+    }
+
+    private static String resourcePrefix(ResourceType type, String path) {
+        return type.name() + "\n" + path + "\n";
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * A response read from disk. The body is a read-only view of the mapped
+     * segment it is stored in.
+     */
+    public static final class Entry {
+
+        private final String key;
+        private final ByteBuffer body;
+        private final long expiresAt;
+        private final long staleUntil;
+        private final String etag;
+        private final String lastModified;
+
+        Entry(String key, ByteBuffer body, long expiresAt, long staleUntil, String etag, String lastModified) {
+            this.key = key;
+            this.body = body.asReadOnlyBuffer();
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public ByteBuffer getBody() {
+            return body.duplicate();
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public long getStaleUntil() {
+            return staleUntil;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private static final class Location {
+
+        private final int segment;
+        private final int offset;
+        private final int length;
+
+        Location(int segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        private final MappedByteBuffer buffer;
+        private volatile int position;
+
+        private Segment(int id, MappedByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, int id, int size) throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                if (file.length() < size) {
+                    file.setLength(size);
+                }
+                return new Segment(id, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        ByteBuffer slice(int offset, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.limit(offset + length);
+            return view.slice();
+        }
+    }
+}
@@ -0,0 +1,603 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.cache;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+import org.jaqpot.ambitclient.exception.ResourceNotFoundException;
+import org.jaqpot.ambitclient.util.CompositeInputStream;
+
+/**
+ * A bounded, in-memory cache of parsed Ambit responses.
+ *
+ * The cache is split into segments, each an LRU map guarded by its own
+ * lock, so that concurrent readers only contend when they hit the same
+ * segment. Entries are weighed by the size in bytes of the response they
+ * were parsed from and are fresh for a time to live configured per
+ * {@link ResourceType}. All segments share one weight budget: a segment
+ * that takes the cache over it evicts its own least recently used entries
+ * first and then those of the other segments, so a single response may
+ * take up to the whole budget.
+ *
+ * For types with revalidation enabled, responses that carried an
+ * {@code ETag} or {@code Last-Modified} header are kept after they expire,
+ * so that the next read can be a conditional request answered with
+ * {@code 304 Not Modified} without downloading or parsing the body again.
+ * Types with neither a time to live nor revalidation are not cached.
+ *
+ * Types configured with a stale-while-revalidate window may be served for
+ * that long after they expire, while a single background refresh per key
+ * fetches a fresh copy; past the window, readers wait for fresh data.
+ *
+ * Types configured with a not-found time to live also remember that Ambit
+ * answered {@code 404} or {@code 410} for a resource, so that repeated reads
+ * of a missing resource fail without a request. Such entries hold the
+ * {@link ResourceNotFoundException} as their value and are never persisted.
+ *
+ * With a {@link DiskCache} attached, the raw bodies of cached responses are
+ * also written to disk and entries missing from memory are parsed back from
+ * there, so that cached data survives restarts of the client.
+ *
+ * Entries can be invalidated one at a time or, after a write to Ambit, for
+ * a resource as a whole across every caller's identity. A response fetched
+ * while its resource was being invalidated is not stored, so readers see
+ * their own writes. Invalidations are versioned per resource, so they do
+ * not discard concurrent fetches of other resources.
+ *
+ * Cached values are shared between callers and must be treated as read
+ * only.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ResponseCache {
+
+    private static final int MAX_INVALIDATED = 256;
+
+    private final Segment[] segments;
+    private final long maxWeight;
+    private final AtomicLong weight = new AtomicLong();
+    private final Map<ResourceType, Long> ttlMillis;
+    private final Set<ResourceType> revalidated;
+    private final Map<ResourceType, Long> maxStaleMillis;
+    private final Map<ResourceType, Long> notFoundTtlMillis;
+    private final DiskCache diskCache;
+    private final Set<CacheKey> refreshing = ConcurrentHashMap.newKeySet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+
+    private ResponseCache(Builder builder) {
+        int count = 1;
+        while (count < builder.concurrencyLevel) {
+            count <<= 1;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        this.maxWeight = builder.maxWeight;
+        this.ttlMillis = new EnumMap<>(builder.ttlMillis);
+        this.revalidated = builder.revalidated.clone();
+        this.maxStaleMillis = new EnumMap<>(builder.maxStaleMillis);
+        this.notFoundTtlMillis = new EnumMap<>(builder.notFoundTtlMillis);
+        this.diskCache = builder.diskCache;
+    }
+
+    public boolean isCached(ResourceType type) {
+        return ttlMillis(type) > 0 || revalidated.contains(type) || notFoundTtlMillis.containsKey(type);
+    }
+
+    /**
+     * Returns the cached value for the key, or null if there is no fresh
+     * value of the requested type.
+     */
+    public <T> T get(CacheKey key, Class<T> valueType) {
+        CachedResponse entry = lookup(key);
+        if (entry == null || !entry.isFresh(System.currentTimeMillis()) || !valueType.isInstance(entry.getValue())) {
+            return null;
+        }
+        return valueType.cast(entry.getValue());
+    }
+
+    /**
+     * Returns the entry stored for the key, which may no longer be fresh
+     * but still be usable for revalidation, or null if there is none.
+     */
+    public CachedResponse lookup(CacheKey key) {
+        return lookup(key, null);
+    }
+
+    /**
+     * Like {@link #lookup(CacheKey)}, but on a miss in memory parses the
+     * entry back from the disk tier, if there is one, with the given parser.
+     */
+    public CachedResponse lookup(CacheKey key, Function<InputStream, ?> parser) {
+        long now = System.currentTimeMillis();
+        CachedResponse entry = segmentFor(key).get(key, now);
+        if (entry == null && parser != null && diskCache != null) {
+            entry = load(key, parser, now);
+        }
+        if (entry != null && entry.isFresh(now)) {
+            hits.increment();
+        } else if (entry != null && entry.isServableStale(now)) {
+            staleHits.increment();
+        } else {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    public void put(CacheKey key, Object value, long weight) {
+        put(key, value, weight, null, null);
+    }
+
+    public void put(CacheKey key, Object value, long weight, String etag, String lastModified) {
+        put(key, generation(key), value, weight, etag, lastModified, null);
+    }
+
+    /**
+     * Stores a parsed response and, if a disk tier is attached and the raw
+     * body is given, persists the body as well. The response is dropped if
+     * its resource was invalidated since {@code generation} was read.
+     */
+    public void put(CacheKey key, long generation, Object value, long weight, String etag, String lastModified, List<ByteBuffer> body) {
+        ResourceType type = key.getType();
+        if (value == null || !isCached(type)) {
+            return;
+        }
+        if (!revalidated.contains(type)) {
+            etag = null;
+            lastModified = null;
+        }
+        long expiresAt = System.currentTimeMillis() + ttlMillis(type);
+        Long maxStale = maxStaleMillis.get(type);
+        CachedResponse entry = new CachedResponse(value, Math.max(1, weight), expiresAt,
+                maxStale == null ? expiresAt : expiresAt + maxStale, etag, lastModified);
+        if ((entry.isFresh(System.currentTimeMillis()) || entry.hasValidators())
+                && segmentFor(key).put(key, entry, generation)) {
+            if (diskCache != null && body != null) {
+                diskCache.put(key, body, expiresAt, entry.getStaleUntil(), etag, lastModified);
+            }
+        }
+    }
+
+    /**
+     * Remembers that Ambit could not find the resource, if not-found
+     * responses of its type are cached.
+     */
+    public void putNotFound(CacheKey key, long generation, ResourceNotFoundException notFound) {
+        Long ttl = notFoundTtlMillis.get(key.getType());
+        if (ttl == null || ttl <= 0) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + ttl;
+        segmentFor(key).put(key, new CachedResponse(notFound, 1, expiresAt, expiresAt, null, null), generation);
+    }
+
+    /**
+     * Marks a stored entry as fresh again after Ambit answered a conditional
+     * request for it with {@code 304 Not Modified}.
+     */
+    public void revalidated(CacheKey key, long generation, CachedResponse entry) {
+        revalidations.increment();
+        put(key, generation, entry.getValue(), entry.getWeight(), entry.getEtag(), entry.getLastModified(), null);
+    }
+
+    /**
+     * Returns the invalidation generation of the key's resource. Read it
+     * before fetching a response that is to be stored.
+     */
+    public long generation(CacheKey key) {
+        return segmentFor(key).generation;
+    }
+
+    /**
+     * Claims the background refresh of a key. Returns false if a refresh of
+     * the key is already running.
+     */
+    public boolean beginRefresh(CacheKey key) {
+        return refreshing.add(key);
+    }
+
+    public void endRefresh(CacheKey key) {
+        refreshing.remove(key);
+    }
+
+    public void invalidate(CacheKey key) {
+        segmentFor(key).remove(key);
+        if (diskCache != null) {
+            diskCache.remove(key);
+        }
+    }
+
+    /**
+     * Drops every entry of a resource, whichever identity it was cached
+     * for.
+     */
+    public void invalidate(ResourceType type, String path) {
+        segmentFor(type, path).removeAll(type, path);
+        if (diskCache != null) {
+            diskCache.removeAll(type, path);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        if (diskCache != null) {
+            diskCache.clear();
+        }
+    }
+
+    public DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    public CacheStats getStats() {
+        long entries = 0;
+        long weight = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                entries += segment.entries.size();
+                weight += segment.weight;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return new CacheStats(hits.sum(), staleHits.sum(), misses.sum(), evictions.sum(), revalidations.sum(), entries, weight);
+    }
+
+    private CachedResponse load(CacheKey key, Function<InputStream, ?> parser, long now) {
+        long generation = generation(key);
+        DiskCache.Entry stored = diskCache.get(key);
+        if (stored == null || (now >= stored.getStaleUntil() && stored.getEtag() == null && stored.getLastModified() == null)) {
+            return null;
+        }
+        ByteBuffer body = stored.getBody();
+        Object value;
+        try {
+            value = parser.apply(new CompositeInputStream(Collections.singletonList(body.duplicate())));
+        } catch (RuntimeException ex) {
+            diskCache.remove(key);
+            return null;
+        }
+        if (value == null) {
+            return null;
+        }
+        CachedResponse entry = new CachedResponse(value, Math.max(1, body.remaining()), stored.getExpiresAt(),
+                stored.getStaleUntil(), stored.getEtag(), stored.getLastModified());
+        segmentFor(key).put(key, entry, generation);
+        return entry;
+    }
+
+    /**
+     * Evicts least recently used entries of the other segments while the
+     * cache is over its budget. Segments that are busy are skipped.
+     */
+    private void evictOthers(Segment full) {
+        for (Segment segment : segments) {
+            if (weight.get() <= maxWeight) {
+                return;
+            }
+            if (segment != full && segment.lock.tryLock()) {
+                try {
+                    segment.evict(0);
+                } finally {
+                    segment.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private long ttlMillis(ResourceType type) {
+        Long ttl = ttlMillis.get(type);
+        return ttl == null ? 0 : ttl;
+    }
+
+    private Segment segmentFor(CacheKey key) {
+        return segmentFor(key.getType(), key.getPath());
+    }
+
+    /**
+     * Places all entries of a resource in the same segment, so that they
+     * can be invalidated together.
+     */
+    private Segment segmentFor(ResourceType type, String path) {
+        int h = 31 * type.ordinal() + path.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    private static String resource(ResourceType type, String path) {
+        return type.name() + ' ' + path;
+    }
+
+    private class Segment {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<CacheKey, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+        private volatile long generation;
+        private final LinkedHashMap<String, Long> invalidated = new LinkedHashMap<>();
+        private long floor;
+
+        CachedResponse get(CacheKey key, long now) {
+            lock.lock();
+            try {
+                CachedResponse entry = entries.get(key);
+                if (entry != null && now >= entry.getStaleUntil() && !entry.hasValidators()) {
+                    entries.remove(key);
+                    subtract(entry.getWeight());
+                    return null;
+                }
+                return entry;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean put(CacheKey key, CachedResponse entry, long expectedGeneration) {
+            if (entry.getWeight() > maxWeight) {
+                remove(key);
+                return false;
+            }
+            lock.lock();
+            try {
+                if (!isCurrent(key, expectedGeneration)) {
+                    return false;
+                }
+                CachedResponse previous = entries.put(key, entry);
+                if (previous != null) {
+                    subtract(previous.getWeight());
+                }
+                weight += entry.getWeight();
+                ResponseCache.this.weight.addAndGet(entry.getWeight());
+                evict(1);
+            } finally {
+                lock.unlock();
+            }
+            evictOthers(this);
+            return true;
+        }
+
+        /**
+         * Evicts least recently used entries, keeping at least {@code keep}
+         * of the most recent ones, while the cache is over its budget. Must
+         * be called with the lock held.
+         */
+        void evict(int keep) {
+            Iterator<CachedResponse> it = entries.values().iterator();
+            int left = entries.size();
+            while (left > keep && ResponseCache.this.weight.get() > maxWeight && it.hasNext()) {
+                CachedResponse eldest = it.next();
+                it.remove();
+                left--;
+                subtract(eldest.getWeight());
+                evictions.increment();
+            }
+        }
+
+        private void subtract(long removed) {
+            weight -= removed;
+            ResponseCache.this.weight.addAndGet(-removed);
+        }
+
+        /**
+         * Returns whether the key's resource has not been invalidated since
+         * {@code expectedGeneration} was read. Must be called with the lock
+         * held.
+         */
+        private boolean isCurrent(CacheKey key, long expectedGeneration) {
+            if (expectedGeneration < floor) {
+                return false;
+            }
+            Long invalidatedAt = invalidated.get(resource(key.getType(), key.getPath()));
+            return invalidatedAt == null || invalidatedAt <= expectedGeneration;
+        }
+
+        /**
+         * Records that a resource was invalidated at a new generation. Only
+         * the most recent invalidations are remembered; fetches older than
+         * the ones forgotten are discarded whatever their resource. Must be
+         * called with the lock held.
+         */
+        private void invalidated(ResourceType type, String path) {
+            generation++;
+            String resource = resource(type, path);
+            invalidated.remove(resource);
+            invalidated.put(resource, generation);
+            if (invalidated.size() > MAX_INVALIDATED) {
+                Iterator<Long> eldest = invalidated.values().iterator();
+                floor = Math.max(floor, eldest.next());
+                eldest.remove();
+            }
+        }
+
+        void remove(CacheKey key) {
+            lock.lock();
+            try {
+                invalidated(key.getType(), key.getPath());
+                CachedResponse previous = entries.remove(key);
+                if (previous != null) {
+                    subtract(previous.getWeight());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void removeAll(ResourceType type, String path) {
+            lock.lock();
+            try {
+                invalidated(type, path);
+                Iterator<Map.Entry<CacheKey, CachedResponse>> it = entries.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<CacheKey, CachedResponse> e = it.next();
+                    if (e.getKey().getType() == type && e.getKey().getPath().equals(path)) {
+                        subtract(e.getValue().getWeight());
+                        it.remove();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                generation++;
+                floor = generation;
+                invalidated.clear();
+                entries.clear();
+                subtract(weight);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private long maxWeight = 64L * 1024 * 1024;
+        private int concurrencyLevel = 16;
+        private final Map<ResourceType, Long> ttlMillis = new EnumMap<>(ResourceType.class);
+        private final EnumSet<ResourceType> revalidated = EnumSet.noneOf(ResourceType.class);
+        private final Map<ResourceType, Long> maxStaleMillis = new EnumMap<>(ResourceType.class);
+        private final Map<ResourceType, Long> notFoundTtlMillis = new EnumMap<>(ResourceType.class);
+        private DiskCache diskCache;
+
+        /**
+         * Sets the total size in bytes of the responses the cache may hold,
+         * which is also the largest response it stores.
+         */
+        public Builder setMaxWeight(long maxWeight) {
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        /**
+         * Sets the number of independently locked segments.
+         */
+        public Builder setConcurrencyLevel(int concurrencyLevel) {
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        public Builder setTtl(ResourceType type, long duration, TimeUnit unit) {
+            ttlMillis.put(type, unit.toMillis(duration));
+            return this;
+        }
+
+        public Builder setTtl(long duration, TimeUnit unit) {
+            for (ResourceType type : ResourceType.values()) {
+                if (type != ResourceType.TASK) {
+                    setTtl(type, duration, unit);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Keeps expired responses of this type that carry validators and
+         * revalidates them with conditional requests. With a time to live
+         * of zero every read is revalidated.
+         */
+        public Builder setRevalidate(ResourceType type, boolean revalidate) {
+            if (revalidate) {
+                revalidated.add(type);
+            } else {
+                revalidated.remove(type);
+            }
+            return this;
+        }
+
+        /**
+         * Lets responses of this type be served for up to {@code maxStale}
+         * after their time to live while they are refreshed in the
+         * background.
+         */
+        public Builder setStaleWhileRevalidate(ResourceType type, long maxStale, TimeUnit unit) {
+            maxStaleMillis.put(type, unit.toMillis(maxStale));
+            return this;
+        }
+
+        /**
+         * Caches {@code 404} and {@code 410} answers for resources of this
+         * type for the given time.
+         */
+        public Builder setNotFoundTtl(ResourceType type, long duration, TimeUnit unit) {
+            notFoundTtlMillis.put(type, unit.toMillis(duration));
+            return this;
+        }
+
+        public Builder setNotFoundTtl(long duration, TimeUnit unit) {
+            for (ResourceType type : ResourceType.values()) {
+                if (type != ResourceType.TASK) {
+                    setNotFoundTtl(type, duration, unit);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Attaches a persistent tier that keeps the raw bodies of cached
+         * responses on disk.
+         */
+        public Builder setDiskCache(DiskCache diskCache) {
+            this.diskCache = diskCache;
+            return this;
+        }
+
+        public ResponseCache build() {
+            return new ResponseCache(this);
+        }
+    }
+}
@@ -29,6 +29,7 @@
  */
 package org.jaqpot.ambitclient.consumer;
 
+import org.jaqpot.ambitclient.Deadline;
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTaskArray;
 import org.asynchttpclient.*;
@@ -36,7 +37,9 @@ import org.asynchttpclient.*;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import org.jaqpot.ambitclient.policy.RequestPipeline;
 import org.jaqpot.ambitclient.serialize.Serializer;
+import org.jaqpot.ambitclient.util.Futures;
 
 /**
  * @author Angelos Valsamis
@@ -50,14 +53,22 @@ public class AlgorithmResourceConsumer extends BaseConsumer {
     private final String algorithmPath;
 
     public AlgorithmResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath) {
-        super(httpClient, serializer);
+        this(serializer, httpClient, basePath, null);
+    }
+
+    public AlgorithmResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, RequestPipeline pipeline) {
+        super(httpClient, serializer, null, pipeline);
         this.basePath = basePath;
         this.algorithmPath = createPath(this.basePath, ALGORITHM_BY_ID);
     }
 
     public CompletableFuture<AmbitTask> train(String algorithmId, Map<String, List<String>> parameters, String subjectId) {
+        return train(algorithmId, parameters, subjectId, null);
+    }
+
+    public CompletableFuture<AmbitTask> train(String algorithmId, Map<String, List<String>> parameters, String subjectId, Deadline deadline) {
         String path = String.format(algorithmPath, algorithmId);
-        CompletableFuture<AmbitTaskArray> f = postForm(path, parameters, subjectId, AmbitTaskArray.class);
-        return f.thenApply((ta) -> ta.getTask().get(0));
+        CompletableFuture<AmbitTaskArray> f = postForm(path, parameters, subjectId, AmbitTaskArray.class, deadline);
+        return Futures.thenApply(f, (ta) -> ta.getTask().get(0));
     }
 }
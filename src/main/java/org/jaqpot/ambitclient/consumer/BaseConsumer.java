@@ -29,22 +29,36 @@
  */
 package org.jaqpot.ambitclient.consumer;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.io.SequenceInputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.StringJoiner;
 import java.util.concurrent.CompletableFuture;
-import org.asynchttpclient.AsyncHandler;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import io.netty.handler.codec.http.HttpHeaders;
 import org.asynchttpclient.AsyncHttpClient;
 import org.asynchttpclient.BoundRequestBuilder;
-import org.asynchttpclient.HttpResponseBodyPart;
-import org.asynchttpclient.HttpResponseHeaders;
-import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.RequestBuilder;
 import org.asynchttpclient.request.body.multipart.Part;
-import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.Deadline;
+import org.jaqpot.ambitclient.cache.CacheKey;
+import org.jaqpot.ambitclient.cache.CachedResponse;
+import org.jaqpot.ambitclient.cache.ResponseCache;
+import org.jaqpot.ambitclient.exception.DeadlineExceededException;
+import org.jaqpot.ambitclient.exception.ResourceNotFoundException;
+import org.jaqpot.ambitclient.policy.AmbitRequest;
+import org.jaqpot.ambitclient.policy.RequestPipeline;
+import org.jaqpot.ambitclient.serialize.IncrementalSerializer;
 import org.jaqpot.ambitclient.serialize.Serializer;
+import org.jaqpot.ambitclient.util.Futures;
 
 /**
  * @author Angelos Valsamis
@@ -52,176 +66,363 @@ import org.jaqpot.ambitclient.serialize.Serializer;
  */
 public abstract class BaseConsumer {
 
+    private static final int STREAM_HIGH_WATER = 256;
+    private static final int STREAM_LOW_WATER = 64;
+
     protected final AsyncHttpClient httpClient;
     protected final Serializer serializer;
+    protected final ResponseCache cache;
+    protected final RequestPipeline pipeline;
+
+    private final ConcurrentMap<String, Flight<?>> inFlight = new ConcurrentHashMap<>();
 
     public BaseConsumer(AsyncHttpClient httpClient, Serializer serializer) {
+        this(httpClient, serializer, null);
+    }
+
+    public BaseConsumer(AsyncHttpClient httpClient, Serializer serializer, ResponseCache cache) {
+        this(httpClient, serializer, cache, null);
+    }
+
+    /**
+     * Creates a consumer whose requests go through the given pipeline of
+     * request policies. Passing null sends them directly.
+     */
+    public BaseConsumer(AsyncHttpClient httpClient, Serializer serializer, ResponseCache cache, RequestPipeline pipeline) {
         this.httpClient = httpClient;
         this.serializer = serializer;
+        this.cache = cache;
+        this.pipeline = pipeline;
     }
 
     public <T> CompletableFuture<T> get(String path, String subjectId, Class<T> c) {
+        return get(path, subjectId, c, null);
+    }
 
-        CompletableFuture<T> future = httpClient
-                .prepareGet(path)
-                .addHeader("Accept", "application/json")
-                .addHeader("subjectid", subjectId)
-                .execute(new AsyncHandler<T>() {
-
-                    private InputStream sis;
-                    io.netty.handler.codec.http.HttpHeaders headers;
-
-                    @Override
-                    public AsyncHandler.State onStatusReceived(HttpResponseStatus status) throws Exception {
-                        int statusCode = status.getStatusCode();
-                        if (statusCode >= 400) {
-                            return AsyncHandler.State.ABORT;
-                        }
-                        return AsyncHandler.State.CONTINUE;
-                    }
-
-                    @Override
-                    public AsyncHandler.State onHeadersReceived(HttpResponseHeaders h) throws Exception {
-                        headers = h.getHeaders();
-                        return AsyncHandler.State.CONTINUE;
-                    }
-
-                    @Override
-                    public T onCompleted() throws Exception {
-                        return serializer.parse(sis, c);
-                    }
-
-                    @Override
-                    public void onThrowable(Throwable t) {
-                        throw new AmbitClientException(t);
-                    }
-
-                    @Override
-                    public AsyncHandler.State onBodyPartReceived(HttpResponseBodyPart httpResponseBodyPart) throws Exception {
-                        if (sis == null) {
-                            sis = new ByteArrayInputStream(httpResponseBodyPart.getBodyPartBytes(), 0, httpResponseBodyPart.length());
-                        } else {
-                            sis = new SequenceInputStream(sis, new ByteArrayInputStream(httpResponseBodyPart.getBodyPartBytes(), 0, httpResponseBodyPart.length()));
-                        }
-                        return AsyncHandler.State.CONTINUE;
-                    }
-                }).toCompletableFuture();
-        return future;
-    }
-
-    private <T> CompletableFuture<T> post(BoundRequestBuilder builder, Class<T> c) {
-        return builder.execute(new AsyncHandler<T>() {
-
-            private InputStream sis;
-            io.netty.handler.codec.http.HttpHeaders headers;
-
-            @Override
-            public AsyncHandler.State onStatusReceived(HttpResponseStatus status) throws Exception {
-                int statusCode = status.getStatusCode();
-                if (statusCode >= 400) {
-                    return AsyncHandler.State.ABORT;
-                }
-                return AsyncHandler.State.CONTINUE;
-            }
+    protected <T> CompletableFuture<T> get(String path, String subjectId, Class<T> c, Consumer<HttpHeaders> headersConsumer) {
+        return get(path, subjectId, c, headersConsumer, null);
+    }
+
+    protected <T> CompletableFuture<T> get(String path, String subjectId, Class<T> c, Consumer<HttpHeaders> headersConsumer, Deadline deadline) {
+        return execute(new AmbitRequest("GET", path, subjectId, null, true, deadline), prepareGet(path, subjectId), c, headersConsumer);
+    }
 
-            @Override
-            public AsyncHandler.State onHeadersReceived(HttpResponseHeaders h) throws Exception {
-                headers = h.getHeaders();
-                return AsyncHandler.State.CONTINUE;
+    protected <T> CompletableFuture<T> get(ResourceType type, String path, String subjectId, Class<T> c) {
+        return get(type, path, subjectId, c, null);
+    }
+
+    /**
+     * Gets a resource through the response cache when one is configured for
+     * this type of resource. A stored response that is no longer fresh but
+     * carries validators is revalidated with a conditional request, and one
+     * within its stale-while-revalidate window is returned at once while a
+     * single background request refreshes it. A remembered not-found answer
+     * fails the read without a request.
+     *
+     * Concurrent reads of the same resource by the same subject share one
+     * request and one parsed result, whether or not it is cached, so the
+     * values returned must be treated as read only. A read that joins one
+     * in flight shares its deadline.
+     */
+    protected <T> CompletableFuture<T> get(ResourceType type, String path, String subjectId, Class<T> c, Deadline deadline) {
+        if (cache == null || !cache.isCached(type)) {
+            return coalesce("GET " + path, subjectId, c,
+                    () -> execute(new AmbitRequest("GET", path, subjectId, type, true, deadline), prepareGet(path, subjectId), c, null));
+        }
+        CacheKey key = CacheKey.of(type, path, subjectId);
+        CachedResponse entry = cache.lookup(key, (in) -> serializer.parse(in, c));
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.getValue() instanceof ResourceNotFoundException && entry.isFresh(now)) {
+            ResourceNotFoundException notFound = (ResourceNotFoundException) entry.getValue();
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new ResourceNotFoundException(notFound.getUri(), notFound.getStatusCode()));
+            return failed;
+        }
+        if (entry != null && !c.isInstance(entry.getValue())) {
+            entry = null;
+        }
+        if (entry != null && entry.isFresh(now)) {
+            return CompletableFuture.completedFuture(c.cast(entry.getValue()));
+        }
+        if (entry != null && entry.isServableStale(now)) {
+            if (cache.beginRefresh(key)) {
+                fetch(key, path, subjectId, c, entry, null)
+                        .whenComplete((value, ex) -> cache.endRefresh(key));
             }
+            return CompletableFuture.completedFuture(c.cast(entry.getValue()));
+        }
+        CachedResponse stale = entry;
+        return coalesce("GET " + path, subjectId, c, () -> fetch(key, path, subjectId, c, stale, deadline));
+    }
 
-            @Override
-            public T onCompleted() throws Exception {
-                return serializer.parse(sis, c);
+    /**
+     * Forgets everything read from a resource after it was changed through
+     * this client: cached responses for every subject, and reads already in
+     * flight, which later callers will no longer join.
+     */
+    protected void invalidate(ResourceType type, String path) {
+        if (cache != null) {
+            cache.invalidate(type, path);
+        }
+        String request = "GET " + path + " ";
+        inFlight.keySet().removeIf((key) -> key.startsWith(request));
+    }
+
+    /**
+     * Runs the request unless an identical one is already in flight, in which
+     * case its result is shared. The request is forgotten as soon as it
+     * completes, and cancelled once every caller sharing it has cancelled.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> coalesce(String request, String subjectId, Class<T> c, Supplier<CompletableFuture<T>> call) {
+        String key = request + " " + c.getName() + " " + subjectId;
+        while (true) {
+            Flight<T> flight = new Flight<>();
+            Flight<?> existing = inFlight.putIfAbsent(key, flight);
+            if (existing != null) {
+                CompletableFuture<T> joined = ((Flight<T>) existing).join();
+                if (joined != null) {
+                    return joined;
+                }
+                inFlight.remove(key, existing);
+                continue;
+            }
+            CompletableFuture<T> first = flight.join();
+            try {
+                flight.start(call.get());
+            } catch (RuntimeException ex) {
+                flight.shared.completeExceptionally(ex);
             }
+            flight.shared.whenComplete((value, ex) -> inFlight.remove(key, flight));
+            return first;
+        }
+    }
+
+    /**
+     * A request shared by the callers of {@link #coalesce}. Each caller gets
+     * its own copy of the result, so that one of them cancelling does not
+     * affect the others.
+     */
+    private static final class Flight<T> {
 
-            @Override
-            public void onThrowable(Throwable t) {
-                throw new AmbitClientException(t);
+        private final CompletableFuture<T> shared = new CompletableFuture<>();
+        private CompletableFuture<T> call;
+        private int callers;
+
+        /**
+         * Returns a copy of the result for a new caller, or null if every
+         * earlier caller has already cancelled.
+         */
+        synchronized CompletableFuture<T> join() {
+            if (shared.isCancelled()) {
+                return null;
             }
+            callers++;
+            CompletableFuture<T> copy = shared.thenApply(Function.identity());
+            copy.whenComplete((value, ex) -> {
+                if (copy.isCancelled()) {
+                    leave();
+                }
+            });
+            return copy;
+        }
 
-            @Override
-            public AsyncHandler.State onBodyPartReceived(HttpResponseBodyPart httpResponseBodyPart) throws Exception {
-                if (sis == null) {
-                    sis = new ByteArrayInputStream(httpResponseBodyPart.getBodyPartBytes(), 0, httpResponseBodyPart.length());
+        void start(CompletableFuture<T> call) {
+            synchronized (this) {
+                this.call = call;
+            }
+            call.whenComplete((value, ex) -> {
+                if (ex != null) {
+                    shared.completeExceptionally(ex);
                 } else {
-                    sis = new SequenceInputStream(sis, new ByteArrayInputStream(httpResponseBodyPart.getBodyPartBytes(), 0, httpResponseBodyPart.length()));
+                    shared.complete(value);
+                }
+            });
+            if (shared.isCancelled()) {
+                call.cancel(true);
+            }
+        }
+
+        private void leave() {
+            CompletableFuture<T> cancelled;
+            synchronized (this) {
+                if (--callers > 0 || !shared.cancel(true)) {
+                    return;
                 }
-                return AsyncHandler.State.CONTINUE;
+                cancelled = call;
+            }
+            if (cancelled != null) {
+                cancelled.cancel(true);
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> fetch(CacheKey key, String path, String subjectId, Class<T> c, CachedResponse entry, Deadline deadline) {
+        BoundRequestBuilder builder = prepareGet(path, subjectId);
+        long generation = cache.generation(key);
+        boolean conditional = entry != null && entry.hasValidators();
+        if (conditional) {
+            if (entry.getEtag() != null) {
+                builder.addHeader(HttpHeaders.Names.IF_NONE_MATCH, entry.getEtag());
+            }
+            if (entry.getLastModified() != null) {
+                builder.addHeader(HttpHeaders.Names.IF_MODIFIED_SINCE, entry.getLastModified());
+            }
+        }
+        CompletableFuture<ResponseHandler<T>> response = send(new AmbitRequest("GET", path, subjectId, key.getType(), true, deadline), builder, () -> {
+            ResponseHandler<T> handler = new ResponseHandler<>(serializer, c, null);
+            handler.setRetainBody(cache.getDiskCache() != null);
+            if (conditional) {
+                handler.setNotModifiedValue(c.cast(entry.getValue()));
+            }
+            return handler;
+        });
+        CompletableFuture<ResponseHandler<T>> checked = Futures.whenComplete(response, (handler, ex) -> {
+            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+            if (cause instanceof ResourceNotFoundException) {
+                cache.putNotFound(key, generation, (ResourceNotFoundException) cause);
+            }
+        });
+        return Futures.thenApply(checked, (handler) -> {
+            T value = handler.getResult();
+            if (handler.isNotModified()) {
+                cache.revalidated(key, generation, entry);
+            } else {
+                HttpHeaders headers = handler.getHeaders();
+                cache.put(key, generation, value, handler.getBodyLength(),
+                        headers == null ? null : headers.get(HttpHeaders.Names.ETAG),
+                        headers == null ? null : headers.get(HttpHeaders.Names.LAST_MODIFIED),
+                        handler.getBody());
+            }
+            return value;
+        });
+    }
+
+    /**
+     * Gets a resource whose {@code elementField} array is handed element by
+     * element to {@code elementConsumer} while the response is decoded. The
+     * serializer must be an {@link IncrementalSerializer}. Elements are
+     * decoded on the I/O thread and passed to the consumer, in order, on
+     * {@code executor}; no more of the body is read while too many of them
+     * wait. The
+     * result completes once the consumer has taken every element, and fails
+     * if it throws, in which case the request is aborted.
+     */
+    protected <T, E> CompletableFuture<T> stream(String path, String subjectId, Class<T> c, String elementField, Class<E> elementType, Consumer<? super E> elementConsumer, Executor executor) {
+        return stream(path, subjectId, c, elementField, elementType, elementConsumer, executor, null);
+    }
+
+    protected <T, E> CompletableFuture<T> stream(String path, String subjectId, Class<T> c, String elementField, Class<E> elementType, Consumer<? super E> elementConsumer, Executor executor, Deadline deadline) {
+        IncrementalSerializer incrementalSerializer = (IncrementalSerializer) serializer;
+        ElementQueue<E> elements = new ElementQueue<>(elementConsumer, executor, STREAM_HIGH_WATER, STREAM_LOW_WATER);
+        CompletableFuture<ResponseHandler<T>> response = send(new AmbitRequest("GET", path, subjectId, null, false, deadline), prepareGet(path, subjectId),
+                () -> new StreamingResponseHandler<>(serializer, c, incrementalSerializer.newParser(c, elementField, elementType, elements), elements));
+        response.whenComplete((handler, ex) -> {
+            if (ex != null) {
+                elements.abort(ex instanceof CompletionException ? ex.getCause() : ex);
+            }
+        });
+        CompletableFuture<T> result = Futures.thenCompose(response, (handler) -> Futures.thenApply(elements.drained(), (value) -> handler.getResult()));
+        elements.drained().whenComplete((value, ex) -> {
+            if (ex != null) {
+                result.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                response.cancel(true);
             }
-        }).toCompletableFuture();
+        });
+        return result;
     }
 
     public <T> CompletableFuture<T> put(String path, Map<String, List<String>> parameters, String subjectId, Class<T> c) {
+        return put(path, parameters, subjectId, c, null);
+    }
 
-        CompletableFuture<T> future = httpClient
+    public <T> CompletableFuture<T> put(String path, Map<String, List<String>> parameters, String subjectId, Class<T> c, Deadline deadline) {
+        return execute(new AmbitRequest("PUT", path, subjectId, null, true, deadline), httpClient
                 .preparePut(path)
                 .setFormParams(parameters)
                 .addHeader("Accept", "application/json")
-                .addHeader("subjectid", subjectId)
-                .execute(new AsyncHandler<T>() {
-
-                    private InputStream sis;
-                    io.netty.handler.codec.http.HttpHeaders headers;
-
-                    @Override
-                    public AsyncHandler.State onStatusReceived(HttpResponseStatus status) throws Exception {
-                        int statusCode = status.getStatusCode();
-                        if (statusCode >= 400) {
-                            return AsyncHandler.State.ABORT;
-                        }
-                        return AsyncHandler.State.CONTINUE;
-                    }
-
-                    @Override
-                    public AsyncHandler.State onHeadersReceived(HttpResponseHeaders h) throws Exception {
-                        headers = h.getHeaders();
-                        return AsyncHandler.State.CONTINUE;
-                    }
-
-                    @Override
-                    public T onCompleted() throws Exception {
-                        return serializer.parse(sis, c);
-                    }
-
-                    @Override
-                    public void onThrowable(Throwable t) {
-                        throw new AmbitClientException(t);
-                    }
-
-                    @Override
-                    public AsyncHandler.State onBodyPartReceived(HttpResponseBodyPart httpResponseBodyPart) throws Exception {
-                        if (sis == null) {
-                            sis = new ByteArrayInputStream(httpResponseBodyPart.getBodyPartBytes(), 0, httpResponseBodyPart.length());
-                        } else {
-                            sis = new SequenceInputStream(sis, new ByteArrayInputStream(httpResponseBodyPart.getBodyPartBytes(), 0, httpResponseBodyPart.length()));
-                        }
-                        return AsyncHandler.State.CONTINUE;
-                    }
-                }).toCompletableFuture();
-        return future;
+                .addHeader("subjectid", subjectId),
+                c, null
+        );
     }
 
     public <T> CompletableFuture<T> postForm(String path, Map<String, List<String>> parameters, String subjectId, Class<T> c) {
-        return post(httpClient
+        return postForm(path, parameters, subjectId, c, null);
+    }
+
+    public <T> CompletableFuture<T> postForm(String path, Map<String, List<String>> parameters, String subjectId, Class<T> c, Deadline deadline) {
+        return execute(new AmbitRequest("POST", path, subjectId, null, true, deadline), httpClient
                 .preparePost(path)
                 .setFormParams(parameters)
                 .addHeader("Accept", "application/json")
                 .addHeader("subjectid", subjectId),
-                c
+                c, null
         );
     }
 
     public <T> CompletableFuture<T> postMultipart(String path, List<Part> bodyParts, String subjectId, Class<T> c) {
-        return post(httpClient
+        return postMultipart(path, bodyParts, subjectId, c, null);
+    }
+
+    public <T> CompletableFuture<T> postMultipart(String path, List<Part> bodyParts, String subjectId, Class<T> c, Deadline deadline) {
+        return execute(new AmbitRequest("POST", path, subjectId, null, true, deadline), httpClient
                 .preparePost(path)
                 .setBodyParts(bodyParts)
                 .addHeader("Accept", "application/json")
                 .addHeader("subjectid", subjectId),
-                c
+                c, null
         );
     }
 
+    private BoundRequestBuilder prepareGet(String path, String subjectId) {
+        return httpClient
+                .prepareGet(path)
+                .addHeader("Accept", "application/json")
+                .addHeader("subjectid", subjectId);
+    }
+
+    private <T> CompletableFuture<T> execute(AmbitRequest request, BoundRequestBuilder builder, Class<T> c, Consumer<HttpHeaders> headersConsumer) {
+        return Futures.thenApply(send(request, builder, () -> new ResponseHandler<>(serializer, c, headersConsumer)),
+                ResponseHandler::getResult);
+    }
+
+    /**
+     * Sends the request through the pipeline, with a new handler for each
+     * attempt, and completes with the handler of the response that was
+     * used. Cancelling an attempt aborts its HTTP request. If the request
+     * has a deadline, each attempt times out when it passes, and no attempt
+     * is sent after it. The HTTP request is built once; attempts that need
+     * their own timeout send a copy of it.
+     */
+    private <T> CompletableFuture<ResponseHandler<T>> send(AmbitRequest request, BoundRequestBuilder builder, Supplier<ResponseHandler<T>> handlers) {
+        Request httpRequest = builder.build();
+        Supplier<CompletableFuture<ResponseHandler<T>>> attempt = () -> {
+            Deadline deadline = request.getDeadline();
+            Request attemptRequest = httpRequest;
+            if (deadline != null) {
+                long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+                if (remaining <= 0) {
+                    CompletableFuture<ResponseHandler<T>> expired = new CompletableFuture<>();
+                    expired.completeExceptionally(new DeadlineExceededException("Deadline passed before sending " + request));
+                    return expired;
+                }
+                attemptRequest = new RequestBuilder(httpRequest)
+                        .setRequestTimeout((int) Math.min(Integer.MAX_VALUE, remaining))
+                        .build();
+            }
+            ResponseHandler<T> handler = handlers.get();
+            ListenableFuture<T> response = httpClient.executeRequest(attemptRequest, handler);
+            CompletableFuture<ResponseHandler<T>> future = response.toCompletableFuture().thenApply((value) -> handler);
+            future.whenComplete((value, ex) -> {
+                if (future.isCancelled()) {
+                    response.cancel(true);
+                }
+            });
+            return future;
+        };
+        return pipeline == null ? attempt.get() : pipeline.execute(request, attempt);
+    }
+
     protected final String createPath(String... paths) {
         StringJoiner joiner = new StringJoiner("/");
         for (String path : paths) {
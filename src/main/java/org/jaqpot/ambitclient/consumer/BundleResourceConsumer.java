@@ -34,6 +34,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.jaqpot.ambitclient.Deadline;
 import org.jaqpot.ambitclient.model.BundleData;
 import org.jaqpot.ambitclient.model.dto.bundle.BundleProperties;
 import org.jaqpot.ambitclient.model.dto.bundle.BundleSubstances;
@@ -43,7 +44,10 @@ import java.util.concurrent.CompletableFuture;
 
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTaskArray;
+import org.jaqpot.ambitclient.cache.ResponseCache;
+import org.jaqpot.ambitclient.policy.RequestPipeline;
 import org.jaqpot.ambitclient.serialize.Serializer;
+import org.jaqpot.ambitclient.util.Futures;
 import org.jaqpot.ambitclient.util.MultiValuedHashMap;
 import org.jaqpot.ambitclient.util.MultiValuedMap;
 
@@ -66,7 +70,15 @@ public class BundleResourceConsumer extends BaseConsumer {
     private final String bundlePropertiesByIdPath;
 
     public BundleResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath) {
-        super(httpClient, serializer);
+        this(serializer, httpClient, basePath, null);
+    }
+
+    public BundleResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, ResponseCache cache) {
+        this(serializer, httpClient, basePath, cache, null);
+    }
+
+    public BundleResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, ResponseCache cache, RequestPipeline pipeline) {
+        super(httpClient, serializer, cache, pipeline);
         this.basePath = basePath;
         this.bundlePath = createPath(this.basePath, BUNDLE);
         this.bundleByIdPath = createPath(this.basePath, BUNDLE_BY_ID);
@@ -75,6 +87,10 @@ public class BundleResourceConsumer extends BaseConsumer {
     }
 
     public CompletableFuture<AmbitTask> createBundle(String description, String userName, String substanceOwner, String subjectId) {
+        return createBundle(description, userName, substanceOwner, subjectId, null);
+    }
+
+    public CompletableFuture<AmbitTask> createBundle(String description, String userName, String substanceOwner, String subjectId, Deadline deadline) {
         String path = bundlePath;
         Map<String, List<String>> parameters = new HashMap<>();
         parameters.put("title", Arrays.asList("owner-bundle"));
@@ -85,42 +101,80 @@ public class BundleResourceConsumer extends BaseConsumer {
         parameters.put("rightsHolder", Arrays.asList(userName));
         parameters.put("maintainer", Arrays.asList(userName));
         parameters.put("stars", Arrays.asList("1"));
-        return postForm(path, parameters, subjectId, AmbitTaskArray.class)
-                .thenApply((ta) -> ta.getTask().get(0));
+        return Futures.thenApply(postForm(path, parameters, subjectId, AmbitTaskArray.class, deadline),
+                (ta) -> ta.getTask().get(0));
     }
 
     public CompletableFuture<BundleSubstances> getSubstancesByBundleId(String bundleId, String subjectId) {
+        return getSubstancesByBundleId(bundleId, subjectId, null);
+    }
+
+    public CompletableFuture<BundleSubstances> getSubstancesByBundleId(String bundleId, String subjectId, Deadline deadline) {
         String path = String.format(bundleSubstancesByIdPath, bundleId);
-        return get(path, subjectId, BundleSubstances.class);
+        return get(ResourceType.BUNDLE_SUBSTANCES, path, subjectId, BundleSubstances.class, deadline);
     }
 
     public CompletableFuture<BundleProperties> getPropertiesByBundleId(String bundleId, String subjectId) {
+        return getPropertiesByBundleId(bundleId, subjectId, null);
+    }
+
+    public CompletableFuture<BundleProperties> getPropertiesByBundleId(String bundleId, String subjectId, Deadline deadline) {
         String path = String.format(bundlePropertiesByIdPath, bundleId);
-        return get(path, subjectId, BundleProperties.class);
+        return get(ResourceType.BUNDLE_PROPERTIES, path, subjectId, BundleProperties.class, deadline);
     }
 
     public CompletableFuture<BundleData> getBundleById(String bundleId, String subjectId) {
         String path = String.format(bundleByIdPath, bundleId);
-        return get(path, subjectId, BundleData.class);
+        return get(ResourceType.BUNDLE, path, subjectId, BundleData.class);
     }
 
+    /**
+     * Adds a substance to a bundle; call {@link #invalidateBundle} once
+     * the returned task has completed.
+     */
     public CompletableFuture<AmbitTask> putSubstanceByBundleId(String bundleId, String substanceURI, String subjectId) {
+        return putSubstanceByBundleId(bundleId, substanceURI, subjectId, null);
+    }
+
+    public CompletableFuture<AmbitTask> putSubstanceByBundleId(String bundleId, String substanceURI, String subjectId, Deadline deadline) {
         String path = String.format(bundleSubstancesByIdPath, bundleId);
         MultiValuedMap<String, String> formParameters = new MultiValuedHashMap<>();
         formParameters.putSingle("substance_uri", substanceURI);
         formParameters.putSingle("command", "add");
-        return put(path, formParameters, subjectId, AmbitTaskArray.class)
-                .thenApply((ta) -> ta.getTask().get(0));
+        invalidate(ResourceType.BUNDLE_SUBSTANCES, path);
+        CompletableFuture<AmbitTaskArray> put = Futures.whenComplete(put(path, formParameters, subjectId, AmbitTaskArray.class, deadline),
+                (ta, ex) -> invalidate(ResourceType.BUNDLE_SUBSTANCES, path));
+        return Futures.thenApply(put, (ta) -> ta.getTask().get(0));
     }
 
+    /**
+     * Adds a property category to a bundle; call
+     * {@link #invalidateBundle} once the returned task has completed.
+     */
     public CompletableFuture<AmbitTask> putPropertyByBundleId(String bundleId, String topCategory, String subCategory, String subjectId) {
+        return putPropertyByBundleId(bundleId, topCategory, subCategory, subjectId, null);
+    }
+
+    public CompletableFuture<AmbitTask> putPropertyByBundleId(String bundleId, String topCategory, String subCategory, String subjectId, Deadline deadline) {
         String path = String.format(bundlePropertiesByIdPath, bundleId);
         MultiValuedMap<String, String> formParameters = new MultiValuedHashMap<>();
         formParameters.putSingle("topcategory", topCategory);
         formParameters.putSingle("endpointcategory", subCategory);
         formParameters.putSingle("command", "add");
-        return put(path, formParameters, subjectId, AmbitTaskArray.class)
-                .thenApply((ta) -> ta.getTask().get(0));
+        invalidate(ResourceType.BUNDLE_PROPERTIES, path);
+        CompletableFuture<AmbitTaskArray> put = Futures.whenComplete(put(path, formParameters, subjectId, AmbitTaskArray.class, deadline),
+                (ta, ex) -> invalidate(ResourceType.BUNDLE_PROPERTIES, path));
+        return Futures.thenApply(put, (ta) -> ta.getTask().get(0));
+    }
+
+    /**
+     * Drops everything cached for a bundle. Ambit applies bundle changes as
+     * tasks, so call this once the tasks of the changes have completed.
+     */
+    public void invalidateBundle(String bundleId) {
+        invalidate(ResourceType.BUNDLE, String.format(bundleByIdPath, bundleId));
+        invalidate(ResourceType.BUNDLE_SUBSTANCES, String.format(bundleSubstancesByIdPath, bundleId));
+        invalidate(ResourceType.BUNDLE_PROPERTIES, String.format(bundlePropertiesByIdPath, bundleId));
     }
 
 //    public Object getBundleByJsonLD(String bundleId) {
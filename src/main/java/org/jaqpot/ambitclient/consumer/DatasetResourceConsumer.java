@@ -29,6 +29,9 @@
  */
 package org.jaqpot.ambitclient.consumer;
 
+import org.jaqpot.ambitclient.Deadline;
+import org.jaqpot.ambitclient.model.dataset.ColumnarDataset;
+import org.jaqpot.ambitclient.model.dataset.DataEntry;
 import org.jaqpot.ambitclient.model.dataset.Dataset;
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
 import org.asynchttpclient.*;
@@ -36,12 +39,23 @@ import org.asynchttpclient.request.body.multipart.ByteArrayPart;
 
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import org.asynchttpclient.request.body.multipart.Part;
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTaskArray;
+import org.jaqpot.ambitclient.serialize.IncrementalSerializer;
+import org.jaqpot.ambitclient.cache.ResponseCache;
+import org.jaqpot.ambitclient.policy.RequestPipeline;
 import org.jaqpot.ambitclient.serialize.Serializer;
+import org.jaqpot.ambitclient.util.Futures;
 
 /**
  * @author Angelos Valsamis
@@ -59,7 +73,15 @@ public class DatasetResourceConsumer extends BaseConsumer {
     private final String structuresByIdPath;
 
     public DatasetResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath) {
-        super(httpClient, serializer);
+        this(serializer, httpClient, basePath, null);
+    }
+
+    public DatasetResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, ResponseCache cache) {
+        this(serializer, httpClient, basePath, cache, null);
+    }
+
+    public DatasetResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, ResponseCache cache, RequestPipeline pipeline) {
+        super(httpClient, serializer, cache, pipeline);
         this.basePath = basePath;
         this.datasetPath = createPath(this.basePath, DATASET);
         this.datasetByIdPath = createPath(this.basePath, DATASET_BY_ID);
@@ -67,22 +89,272 @@ public class DatasetResourceConsumer extends BaseConsumer {
     }
 
     public CompletableFuture<Dataset> getDatasetById(String datasetId, String subjectId) {
+        return getDatasetById(datasetId, subjectId, null);
+    }
+
+    public CompletableFuture<Dataset> getDatasetById(String datasetId, String subjectId, Deadline deadline) {
+        String path = String.format(datasetByIdPath, datasetId);
+        return get(ResourceType.DATASET, path, subjectId, Dataset.class, deadline);
+    }
+
+    /**
+     * Gets a dataset without keeping its rows: every {@link DataEntry} is
+     * passed to {@code rowConsumer} in order, and the returned dataset only
+     * carries the features and the other header fields.
+     *
+     * Rows are only streamed when the serializer is an
+     * {@link IncrementalSerializer}. They are then decoded while the
+     * response arrives and passed to {@code rowConsumer} on {@code executor},
+     * the common fork-join pool unless one is given, and reads from Ambit
+     * are paused while the consumer is behind, so the dataset is never held in memory. With any other
+     * serializer the whole dataset is parsed first and its rows are then
+     * passed on from the calling or I/O thread.
+     */
+    public CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer) {
+        return streamDataset(datasetId, subjectId, rowConsumer, null);
+    }
+
+    public CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer, Deadline deadline) {
+        return streamDataset(datasetId, subjectId, rowConsumer, ForkJoinPool.commonPool(), deadline);
+    }
+
+    public CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, Consumer<DataEntry> rowConsumer, Executor executor, Deadline deadline) {
         String path = String.format(datasetByIdPath, datasetId);
-        return get(path, subjectId, Dataset.class);
+        if (serializer instanceof IncrementalSerializer) {
+            return stream(path, subjectId, Dataset.class, "dataEntry", DataEntry.class, rowConsumer, executor, deadline);
+        }
+        return Futures.thenApply(get(path, subjectId, Dataset.class, null, deadline), (dataset) -> {
+            List<DataEntry> rows = dataset.getDataEntry();
+            dataset.setDataEntry(null);
+            if (rows != null) {
+                rows.forEach(rowConsumer);
+            }
+            return dataset;
+        });
+    }
+
+    /**
+     * Gets a dataset as columns. With an {@link IncrementalSerializer} the
+     * columns are filled while the response is decoded, one row at a time,
+     * and the per-row maps are never held together; otherwise the dataset
+     * is parsed whole first.
+     */
+    public CompletableFuture<ColumnarDataset> getColumnarDatasetById(String datasetId, String subjectId) {
+        return getColumnarDatasetById(datasetId, subjectId, null);
+    }
+
+    public CompletableFuture<ColumnarDataset> getColumnarDatasetById(String datasetId, String subjectId, Deadline deadline) {
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder();
+        return Futures.thenApply(streamDataset(datasetId, subjectId, builder, deadline), builder::build);
     }
 
     public CompletableFuture<AmbitTask> createDatasetByPDB(byte[] file, String subjectId) {
+        return createDatasetByPDB(file, subjectId, null);
+    }
+
+    public CompletableFuture<AmbitTask> createDatasetByPDB(byte[] file, String subjectId, Deadline deadline) {
         String fileName = UUID.randomUUID().toString() + ".pdb";
         ByteArrayPart part = new ByteArrayPart("file", file, "octet-stream", Charset.defaultCharset(), fileName);
         List<Part> bodyParts = new ArrayList<>();
         bodyParts.add(part);
-        return postMultipart(datasetPath, bodyParts, subjectId, AmbitTaskArray.class)
-                .thenApply((ta) -> ta.getTask().get(0));
+        return Futures.thenApply(postMultipart(datasetPath, bodyParts, subjectId, AmbitTaskArray.class, deadline),
+                (ta) -> ta.getTask().get(0));
     }
 
     public CompletableFuture<Dataset> getStructuresByDatasetId(String datasetId, String subjectId) {
+        return getStructuresByDatasetId(datasetId, subjectId, null);
+    }
+
+    public CompletableFuture<Dataset> getStructuresByDatasetId(String datasetId, String subjectId, Deadline deadline) {
         String path = String.format(structuresByIdPath, datasetId);
-        return get(path, subjectId, Dataset.class);
+        return get(ResourceType.DATASET_STRUCTURES, path, subjectId, Dataset.class, deadline);
+    }
+
+    /**
+     * Gets a dataset as pages of {@code pageSize} rows, keeping at most
+     * {@code parallelism} page requests in flight, and merges them in order.
+     *
+     * @throws IllegalArgumentException if {@code pageSize} or
+     * {@code parallelism} is not positive
+     */
+    public CompletableFuture<Dataset> getDatasetById(String datasetId, String subjectId, int pageSize, int parallelism) {
+        return getDatasetById(datasetId, subjectId, pageSize, parallelism, null);
+    }
+
+    public CompletableFuture<Dataset> getDatasetById(String datasetId, String subjectId, int pageSize, int parallelism, Deadline deadline) {
+        return getPaged(datasetByIdPath, datasetId, subjectId, pageSize, parallelism, deadline);
+    }
+
+    public CompletableFuture<Dataset> getStructuresByDatasetId(String datasetId, String subjectId, int pageSize, int parallelism) {
+        return getStructuresByDatasetId(datasetId, subjectId, pageSize, parallelism, null);
+    }
+
+    public CompletableFuture<Dataset> getStructuresByDatasetId(String datasetId, String subjectId, int pageSize, int parallelism, Deadline deadline) {
+        return getPaged(structuresByIdPath, datasetId, subjectId, pageSize, parallelism, deadline);
+    }
+
+    /**
+     * Pages through a dataset like {@link #getDatasetById(String, String, int, int)}
+     * but hands the rows to {@code rowConsumer} in order as soon as all the
+     * pages before them have arrived. The returned dataset has no rows.
+     * Pages are not requested more than twice {@code parallelism} pages
+     * ahead of the rows handed over, so a slow page bounds the number of
+     * pages held back rather than letting the other requests run on.
+     */
+    public CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, int pageSize, int parallelism, Consumer<DataEntry> rowConsumer) {
+        return streamDataset(datasetId, subjectId, pageSize, parallelism, rowConsumer, null);
+    }
+
+    public CompletableFuture<Dataset> streamDataset(String datasetId, String subjectId, int pageSize, int parallelism, Consumer<DataEntry> rowConsumer, Deadline deadline) {
+        return streamPages(datasetByIdPath, datasetId, subjectId, pageSize, parallelism, rowConsumer, deadline);
+    }
+
+    private CompletableFuture<Dataset> getPaged(String byIdPath, String datasetId, String subjectId, int pageSize, int parallelism, Deadline deadline) {
+        List<DataEntry> rows = new ArrayList<>();
+        return Futures.thenApply(streamPages(byIdPath, datasetId, subjectId, pageSize, parallelism, rows::add, deadline), (dataset) -> {
+            dataset.setDataEntry(rows);
+            return dataset;
+        });
+    }
+
+    private CompletableFuture<Dataset> streamPages(String byIdPath, String datasetId, String subjectId, int pageSize, int parallelism, Consumer<DataEntry> rowConsumer, Deadline deadline) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        String path = String.format(byIdPath, datasetId);
+        OrderedPages pages = new OrderedPages(rowConsumer, 2 * parallelism);
+        return Futures.thenCompose(getPage(path, 0, pageSize, subjectId, deadline), (first) -> {
+            List<DataEntry> rows = first.getDataEntry();
+            first.setDataEntry(null);
+            pages.complete(0, rows);
+            if (rows == null || rows.size() < pageSize) {
+                return CompletableFuture.completedFuture(first);
+            }
+            int pageCount = first.getTotalRows() == null
+                    ? -1
+                    : (first.getTotalRows() + pageSize - 1) / pageSize;
+            List<CompletableFuture<Void>> lanes = new ArrayList<>();
+            for (int lane = 0; lane < parallelism; lane++) {
+                lanes.add(fetchLane(path, 1 + lane, parallelism, pageCount, pageSize, subjectId, pages, deadline));
+            }
+            CompletableFuture<Void> all = Futures.allOf(lanes);
+            for (CompletableFuture<Void> lane : lanes) {
+                lane.whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        Throwable failure = ex instanceof CompletionException ? ex.getCause() : ex;
+                        pages.fail(failure);
+                        if (all.completeExceptionally(failure)) {
+                            lanes.forEach((other) -> other.cancel(true));
+                        }
+                    }
+                });
+            }
+            return Futures.thenApply(all, (v) -> first);
+        });
+    }
+
+    /**
+     * Fetches every {@code stride}-th page starting at {@code page}. When the
+     * page count is unknown, the lane stops at the first page that is not
+     * full.
+     */
+    private CompletableFuture<Void> fetchLane(String path, int page, int stride, int pageCount, int pageSize, String subjectId, OrderedPages pages, Deadline deadline) {
+        if (pageCount >= 0 && page >= pageCount) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Dataset> fetched = Futures.thenCompose(pages.admit(page), (v) -> getPage(path, page, pageSize, subjectId, deadline));
+        return Futures.thenCompose(fetched, (dataset) -> {
+            List<DataEntry> rows = dataset.getDataEntry();
+            pages.complete(page, rows);
+            if (pageCount < 0 && (rows == null || rows.size() < pageSize)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return fetchLane(path, page + stride, stride, pageCount, pageSize, subjectId, pages, deadline);
+        });
+    }
+
+    private CompletableFuture<Dataset> getPage(String path, int page, int pageSize, String subjectId, Deadline deadline) {
+        return get(path + "?page=" + page + "&pagesize=" + pageSize, subjectId, Dataset.class, null, deadline);
+    }
+
+    /**
+     * Emits the rows of pages in page order, holding back pages that arrive
+     * before their predecessors, and admits page requests only up to
+     * {@code window} pages ahead of the next page to emit. Once a page has
+     * failed, no more rows are emitted and every admission fails.
+     */
+    private static class OrderedPages {
+
+        private final Consumer<DataEntry> rowConsumer;
+        private final int window;
+        private final Map<Integer, List<DataEntry>> pending = new HashMap<>();
+        private final Map<Integer, CompletableFuture<Void>> admissions = new HashMap<>();
+        private int next;
+        private Throwable failure;
+
+        OrderedPages(Consumer<DataEntry> rowConsumer, int window) {
+            this.rowConsumer = rowConsumer;
+            this.window = window;
+        }
+
+        /**
+         * Completes once {@code page} is within the window.
+         */
+        synchronized CompletableFuture<Void> admit(int page) {
+            CompletableFuture<Void> admission = new CompletableFuture<>();
+            if (failure != null) {
+                admission.completeExceptionally(failure);
+            } else if (page < next + window) {
+                admission.complete(null);
+            } else {
+                admissions.put(page, admission);
+            }
+            return admission;
+        }
+
+        /**
+         * Stops emitting rows and fails the admissions still waiting.
+         */
+        void fail(Throwable failure) {
+            List<CompletableFuture<Void>> waiting;
+            synchronized (this) {
+                if (this.failure != null) {
+                    return;
+                }
+                this.failure = failure;
+                pending.clear();
+                waiting = new ArrayList<>(admissions.values());
+                admissions.clear();
+            }
+            for (CompletableFuture<Void> admission : waiting) {
+                admission.completeExceptionally(failure);
+            }
+        }
+
+        void complete(int page, List<DataEntry> rows) {
+            List<CompletableFuture<Void>> admitted = new ArrayList<>();
+            synchronized (this) {
+                if (failure != null) {
+                    return;
+                }
+                pending.put(page, rows == null ? Collections.<DataEntry>emptyList() : rows);
+                List<DataEntry> ready;
+                while ((ready = pending.remove(next)) != null) {
+                    ready.forEach(rowConsumer);
+                    CompletableFuture<Void> admission = admissions.remove(next + window);
+                    if (admission != null) {
+                        admitted.add(admission);
+                    }
+                    next++;
+                }
+            }
+            for (CompletableFuture<Void> admission : admitted) {
+                admission.complete(null);
+            }
+        }
     }
 
 }
@@ -0,0 +1,169 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.consumer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Hands the elements decoded from a response on the I/O thread over to a
+ * consumer that runs on an executor, one at a time and in order.
+ *
+ * The reader asks through {@link #whenReady} before reading more of the
+ * response. Once {@code highWater} elements are waiting, it is only let
+ * through after the consumer has brought the queue down to
+ * {@code lowWater}, so a slow consumer holds back the socket rather than
+ * the I/O thread, and at most one body part's worth of elements above the
+ * high water mark is kept.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+class ElementQueue<E> implements Consumer<E> {
+
+    private final Consumer<? super E> consumer;
+    private final Executor executor;
+    private final int highWater;
+    private final int lowWater;
+
+    private final ArrayDeque<E> elements = new ArrayDeque<>();
+    private final AtomicInteger draining = new AtomicInteger();
+    private final CompletableFuture<Void> drained = new CompletableFuture<>();
+    private Runnable waitingReader;
+    private boolean finished;
+
+    ElementQueue(Consumer<? super E> consumer, Executor executor, int highWater, int lowWater) {
+        this.consumer = consumer;
+        this.executor = executor;
+        this.highWater = highWater;
+        this.lowWater = lowWater;
+    }
+
+    /**
+     * Queues an element decoded on the I/O thread.
+     */
+    @Override
+    public void accept(E element) {
+        synchronized (this) {
+            if (drained.isDone()) {
+                return;
+            }
+            elements.add(element);
+        }
+        schedule();
+    }
+
+    /**
+     * Runs {@code read} at once if the consumer is keeping up, or else once
+     * it has caught up. It is dropped if the queue is aborted first.
+     */
+    void whenReady(Runnable read) {
+        synchronized (this) {
+            if (drained.isDone()) {
+                return;
+            }
+            if (elements.size() >= highWater) {
+                waitingReader = read;
+                return;
+            }
+        }
+        read.run();
+    }
+
+    /**
+     * Marks the end of the elements. The future returned by
+     * {@link #drained()} completes once the consumer has taken the last one.
+     */
+    void finish() {
+        synchronized (this) {
+            finished = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Drops the elements still waiting and fails {@link #drained()}.
+     */
+    void abort(Throwable failure) {
+        synchronized (this) {
+            elements.clear();
+            waitingReader = null;
+        }
+        drained.completeExceptionally(failure);
+    }
+
+    CompletableFuture<Void> drained() {
+        return drained;
+    }
+
+    private void schedule() {
+        if (draining.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        do {
+            E next;
+            while ((next = poll()) != null) {
+                try {
+                    consumer.accept(next);
+                } catch (RuntimeException ex) {
+                    abort(ex);
+                }
+            }
+        } while (draining.decrementAndGet() != 0);
+    }
+
+    private E poll() {
+        Runnable read = null;
+        E next;
+        synchronized (this) {
+            if (drained.isDone()) {
+                return null;
+            }
+            next = elements.poll();
+            if (waitingReader != null && elements.size() <= lowWater) {
+                read = waitingReader;
+                waitingReader = null;
+            }
+            if (next == null && finished) {
+                drained.complete(null);
+            }
+        }
+        if (read != null) {
+            read.run();
+        }
+        return next;
+    }
+}
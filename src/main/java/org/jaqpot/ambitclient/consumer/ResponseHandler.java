@@ -0,0 +1,245 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.consumer;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import org.asynchttpclient.AsyncHandler;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseHeaders;
+import org.asynchttpclient.HttpResponseStatus;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.jaqpot.ambitclient.exception.ResourceNotFoundException;
+import org.jaqpot.ambitclient.serialize.IncrementalParser;
+import org.jaqpot.ambitclient.serialize.IncrementalSerializer;
+import org.jaqpot.ambitclient.serialize.Serializer;
+import org.jaqpot.ambitclient.util.CompositeInputStream;
+import org.jaqpot.ambitclient.util.RetryAfter;
+
+/**
+ * Collects the body parts of an Ambit response and parses them once the
+ * response is complete. The parts are kept as received and read through a
+ * single {@link CompositeInputStream}, so the body is never copied again.
+ * If the serializer is an {@link IncrementalSerializer}, each part is fed
+ * to its parser as it arrives and nothing is buffered unless the raw body
+ * was asked to be retained.
+ *
+ * For conditional requests, a {@code 304 Not Modified} answer yields the
+ * value the request was revalidating; to any other request it has no
+ * body to parse and fails like an error status. Error statuses fail the request once
+ * the response is complete, without keeping its body, with a
+ * {@link ResourceNotFoundException} for {@code 404} and {@code 410}.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+class ResponseHandler<T> implements AsyncHandler<T> {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Serializer serializer;
+    private final Class<T> valueType;
+    private final Consumer<HttpHeaders> headersConsumer;
+
+    private final IncrementalParser<T> parser;
+
+    private List<ByteBuffer> chunks;
+    private HttpHeaders headers;
+    private long bodyLength;
+    private T notModifiedValue;
+    private boolean notModified;
+    private boolean retainBody;
+    private int errorStatus;
+    private String errorUri;
+    private T result;
+
+    ResponseHandler(Serializer serializer, Class<T> valueType, Consumer<HttpHeaders> headersConsumer) {
+        this(serializer, valueType, headersConsumer, serializer instanceof IncrementalSerializer
+                ? ((IncrementalSerializer) serializer).newParser(valueType)
+                : null);
+    }
+
+    ResponseHandler(Serializer serializer, Class<T> valueType, Consumer<HttpHeaders> headersConsumer, IncrementalParser<T> parser) {
+        this.serializer = serializer;
+        this.valueType = valueType;
+        this.headersConsumer = headersConsumer;
+        this.parser = parser;
+    }
+
+    @Override
+    public State onStatusReceived(HttpResponseStatus status) throws Exception {
+        int statusCode = status.getStatusCode();
+        if (statusCode == 304 && notModifiedValue != null) {
+            notModified = true;
+            return State.CONTINUE;
+        }
+        if (statusCode >= 400 || statusCode == 304) {
+            errorStatus = statusCode;
+            errorUri = status.getUri().toUrl();
+            return State.CONTINUE;
+        }
+        return State.CONTINUE;
+    }
+
+    @Override
+    public State onHeadersReceived(HttpResponseHeaders h) throws Exception {
+        headers = h.getHeaders();
+        if (headersConsumer != null) {
+            headersConsumer.accept(headers);
+        }
+        return State.CONTINUE;
+    }
+
+    @Override
+    public State onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+        if (notModified || errorStatus != 0) {
+            return State.CONTINUE;
+        }
+        bodyLength += bodyPart.length();
+        if (parser != null) {
+            parser.feed(bodyPart.getBodyByteBuffer());
+            if (!retainBody) {
+                return State.CONTINUE;
+            }
+        }
+        if (chunks == null) {
+            chunks = new ArrayList<>(expectedChunks());
+        }
+        chunks.add(bodyPart.getBodyByteBuffer());
+        return State.CONTINUE;
+    }
+
+    @Override
+    public T onCompleted() throws Exception {
+        return complete();
+    }
+
+    /**
+     * Parses the response once its body has been received.
+     */
+    T complete() {
+        result = parse();
+        return result;
+    }
+
+    private T parse() {
+        if (errorStatus == 404 || errorStatus == 410) {
+            throw new ResourceNotFoundException(errorUri, errorStatus);
+        }
+        if (errorStatus != 0) {
+            throw new AmbitResponseException(errorUri, errorStatus, RetryAfter.millis(headers, System.currentTimeMillis()));
+        }
+        if (notModified) {
+            return notModifiedValue;
+        }
+        if (parser != null) {
+            return parser.complete();
+        }
+        List<ByteBuffer> body = new ArrayList<>(chunks == null ? 0 : chunks.size());
+        if (chunks != null) {
+            for (ByteBuffer chunk : chunks) {
+                body.add(chunk.duplicate());
+            }
+        }
+        return serializer.parse(new CompositeInputStream(body), valueType);
+    }
+
+    @Override
+    public void onThrowable(Throwable t) {
+        if (t instanceof CancellationException) {
+            return;
+        }
+        throw new AmbitClientException(t);
+    }
+
+    /**
+     * Returns the value the response was parsed into.
+     */
+    T getResult() {
+        return result;
+    }
+
+    /**
+     * Sets the value to return if Ambit answers {@code 304 Not Modified}.
+     */
+    void setNotModifiedValue(T value) {
+        this.notModifiedValue = value;
+    }
+
+    /**
+     * Keeps the raw body parts after parsing, so that they can be stored.
+     */
+    void setRetainBody(boolean retainBody) {
+        this.retainBody = retainBody;
+    }
+
+    /**
+     * Returns the raw body parts of a completed response, or null if they
+     * were not kept.
+     */
+    List<ByteBuffer> getBody() {
+        if (parser != null && !retainBody) {
+            return null;
+        }
+        return chunks == null ? new ArrayList<>(0) : chunks;
+    }
+
+    boolean isNotModified() {
+        return notModified;
+    }
+
+    HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the number of body bytes received so far.
+     */
+    long getBodyLength() {
+        return bodyLength;
+    }
+
+    private int expectedChunks() {
+        String contentLength = headers == null ? null : headers.get(HttpHeaders.Names.CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                return (int) Math.min(1 << 16, Long.parseLong(contentLength) / CHUNK_SIZE + 1);
+            } catch (NumberFormatException ex) {
+                // fall through to the default capacity
+            }
+        }
+        return 16;
+    }
+}
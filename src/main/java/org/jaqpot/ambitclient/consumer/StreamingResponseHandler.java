@@ -0,0 +1,118 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.consumer;
+
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.handler.StreamedAsyncHandler;
+import org.jaqpot.ambitclient.serialize.IncrementalParser;
+import org.jaqpot.ambitclient.serialize.Serializer;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * A {@link ResponseHandler} that reads the body as a stream of parts and
+ * asks for the next part only when its {@link ElementQueue} is ready for
+ * more, so that the HTTP client stops reading from the connection while
+ * the consumer of the elements is behind.
+ *
+ * The body is parsed and the queue finished once the last part has been
+ * taken, which may be after the HTTP client considers the response
+ * complete; callers wait for {@link ElementQueue#drained()} rather than for
+ * the response. Failures, including error statuses, fail the queue.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+class StreamingResponseHandler<T> extends ResponseHandler<T> implements StreamedAsyncHandler<T> {
+
+    private final ElementQueue<?> elements;
+
+    StreamingResponseHandler(Serializer serializer, Class<T> valueType, IncrementalParser<T> parser, ElementQueue<?> elements) {
+        super(serializer, valueType, null, parser);
+        this.elements = elements;
+    }
+
+    @Override
+    public State onStream(Publisher<HttpResponseBodyPart> publisher) {
+        publisher.subscribe(new BodySubscriber());
+        return State.CONTINUE;
+    }
+
+    @Override
+    public T onCompleted() throws Exception {
+        return null;
+    }
+
+    @Override
+    public void onThrowable(Throwable t) {
+        elements.abort(t);
+        super.onThrowable(t);
+    }
+
+    private class BodySubscriber implements Subscriber<HttpResponseBodyPart> {
+
+        private Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(HttpResponseBodyPart bodyPart) {
+            try {
+                onBodyPartReceived(bodyPart);
+            } catch (Exception ex) {
+                subscription.cancel();
+                elements.abort(ex);
+                return;
+            }
+            elements.whenReady(() -> subscription.request(1));
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            elements.abort(t);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                complete();
+            } catch (RuntimeException ex) {
+                elements.abort(ex);
+                return;
+            }
+            elements.finish();
+        }
+    }
+}
@@ -34,9 +34,13 @@ import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import org.asynchttpclient.AsyncHttpClient;
+import org.jaqpot.ambitclient.Deadline;
 import org.jaqpot.ambitclient.model.dataset.Substance;
+import org.jaqpot.ambitclient.cache.ResponseCache;
+import org.jaqpot.ambitclient.policy.RequestPipeline;
 import org.jaqpot.ambitclient.model.dto.bundle.BundleSubstances;
 import org.jaqpot.ambitclient.serialize.Serializer;
+import org.jaqpot.ambitclient.util.Futures;
 
 /**
  * @author Angelos Valsamis
@@ -58,7 +62,15 @@ public class SubstanceOwnerResourceConsumer extends BaseConsumer {
     private final String ownerStructuresByIdPath;
 
     public SubstanceOwnerResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath) {
-        super(httpClient, serializer);
+        this(serializer, httpClient, basePath, null);
+    }
+
+    public SubstanceOwnerResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, ResponseCache cache) {
+        this(serializer, httpClient, basePath, cache, null);
+    }
+
+    public SubstanceOwnerResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, ResponseCache cache, RequestPipeline pipeline) {
+        super(httpClient, serializer, cache, pipeline);
         this.basePath = basePath;
         this.ownerPath = createPath(this.basePath, SUBSTANCEOWNER);
         this.ownerByIdPath = createPath(this.basePath, SUBSTANCEOWNER_BY_ID);
@@ -68,17 +80,20 @@ public class SubstanceOwnerResourceConsumer extends BaseConsumer {
     }
 
     public CompletableFuture<List<String>> getOwnerSubstances(String ownerId, String subjectId) {
+        return getOwnerSubstances(ownerId, subjectId, null);
+    }
+
+    public CompletableFuture<List<String>> getOwnerSubstances(String ownerId, String subjectId, Deadline deadline) {
         String path = String.format(ownerSubstancesByIdPath, ownerId);
-        return get(path, subjectId, BundleSubstances.class)
-                .thenApply((ta) -> {
-                    if (ta.getSubstance() != null && !ta.getSubstance().isEmpty()) {
-                        return ta.getSubstance()
-                                .stream()
-                                .map(Substance::getURI)
-                                .collect(Collectors.toList());
-                    }
-                    return null;
-                });
+        return Futures.thenApply(get(ResourceType.OWNER_SUBSTANCES, path, subjectId, BundleSubstances.class, deadline), (ta) -> {
+            if (ta.getSubstance() != null && !ta.getSubstance().isEmpty()) {
+                return ta.getSubstance()
+                        .stream()
+                        .map(Substance::getURI)
+                        .collect(Collectors.toList());
+            }
+            return null;
+        });
     }
 
 }
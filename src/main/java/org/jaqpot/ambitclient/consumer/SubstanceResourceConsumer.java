@@ -29,10 +29,13 @@
  */
 package org.jaqpot.ambitclient.consumer;
 
+import org.jaqpot.ambitclient.Deadline;
 import org.jaqpot.ambitclient.model.dto.study.Studies;
 import org.asynchttpclient.*;
 
 import java.util.concurrent.CompletableFuture;
+import org.jaqpot.ambitclient.cache.ResponseCache;
+import org.jaqpot.ambitclient.policy.RequestPipeline;
 import org.jaqpot.ambitclient.serialize.Serializer;
 
 /**
@@ -47,15 +50,27 @@ public class SubstanceResourceConsumer extends BaseConsumer {
     private final String studyByIdPath;
 
     public SubstanceResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath) {
-        super(httpClient, serializer);
+        this(serializer, httpClient, basePath, null);
+    }
+
+    public SubstanceResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, ResponseCache cache) {
+        this(serializer, httpClient, basePath, cache, null);
+    }
+
+    public SubstanceResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, ResponseCache cache, RequestPipeline pipeline) {
+        super(httpClient, serializer, cache, pipeline);
         this.basePath = basePath;
         this.studyByIdPath = createPath(this.basePath, STUDY_BY_ID);
     }
 
     public CompletableFuture<Studies> getStudiesBySubstanceId(String substanceId, String subjectId) {
+        return getStudiesBySubstanceId(substanceId, subjectId, null);
+    }
+
+    public CompletableFuture<Studies> getStudiesBySubstanceId(String substanceId, String subjectId, Deadline deadline) {
         String path = String.format(studyByIdPath, substanceId);
 
-        return get(path, subjectId, Studies.class);
+        return get(ResourceType.SUBSTANCE_STUDIES, path, subjectId, Studies.class, deadline);
     }
 
 }
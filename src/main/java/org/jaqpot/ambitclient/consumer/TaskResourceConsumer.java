@@ -29,13 +29,20 @@
  */
 package org.jaqpot.ambitclient.consumer;
 
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
 import org.jaqpot.ambitclient.model.dto.ambit.AmbitTaskArray;
 import org.asynchttpclient.*;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.policy.RequestPipeline;
 import org.jaqpot.ambitclient.serialize.Serializer;
+import org.jaqpot.ambitclient.util.Futures;
 
 /**
  * @author Angelos Valsamis
@@ -49,40 +56,61 @@ public class TaskResourceConsumer extends BaseConsumer {
 
     private final String basePath;
     private final String taskByIdPath;
+    private final Timer timer;
 
-    public TaskResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath) {
-        super(httpClient, serializer);
+    public TaskResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, Timer timer) {
+        this(serializer, httpClient, basePath, timer, null);
+    }
+
+    public TaskResourceConsumer(Serializer serializer, AsyncHttpClient httpClient, String basePath, Timer timer, RequestPipeline pipeline) {
+        super(httpClient, serializer, null, pipeline);
         this.basePath = basePath;
         this.taskByIdPath = createPath(this.basePath, TASK_BY_ID);
+        this.timer = timer;
     }
 
     public CompletableFuture<AmbitTask> getTask(String taskId, String subjectId) {
+        return getTask(taskId, subjectId, null);
+    }
+
+    public CompletableFuture<AmbitTask> getTask(String taskId, String subjectId, Consumer<HttpHeaders> headersConsumer) {
         String path = String.format(taskByIdPath, taskId);
-        return get(path, subjectId, AmbitTaskArray.class)
-                .thenApply((ta) -> ta.getTask().get(0));
+        return Futures.thenApply(get(path, subjectId, AmbitTaskArray.class, headersConsumer),
+                (ta) -> ta.getTask().get(0));
     }
 
+    /**
+     * Polls the task until it leaves the Running/Queued state. Each poll is
+     * scheduled on the shared timer once the previous one has returned, so no
+     * I/O thread is ever put to sleep while waiting.
+     */
     public CompletableFuture<AmbitTask> waitTask(String taskId, long timeoutMillis, String subjectId) {
-        CompletableFuture<AmbitTask> tf = getTask(taskId, subjectId);
-        int iterations = (int) (timeoutMillis / POLLING_INTERVAL_MILLIS);
-        for (int i = 0; i < iterations; i++) {
-            tf = tf.thenCompose(task -> {
-                try {
-                    if (task.getStatus().equals("Running") || task.getStatus().equals("Queued")) {
-                        Thread.sleep(POLLING_INTERVAL_MILLIS);
-                        return getTask(taskId, subjectId);
-                    }
-                } catch (InterruptedException ex) {
-                    return CompletableFuture.supplyAsync(() -> task);
-                }
-                return CompletableFuture.supplyAsync(() -> task);
-            });
-        }
-        return tf.thenApply(task -> {
-            if (task.getStatus().equals("Running") || task.getStatus().equals("Queued")) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        return pollTask(taskId, deadline, subjectId);
+    }
+
+    private CompletableFuture<AmbitTask> pollTask(String taskId, long deadline, String subjectId) {
+        return Futures.thenCompose(getTask(taskId, subjectId), task -> {
+            if (!isPending(task)) {
+                return CompletableFuture.completedFuture(task);
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
                 throw new AmbitClientException("Timeout waiting for Ambit task:" + task.getId());
             }
-            return task;
+            return Futures.thenCompose(delay(Math.min(POLLING_INTERVAL_MILLIS, remaining)),
+                    v -> pollTask(taskId, deadline, subjectId));
         });
     }
+
+    private CompletableFuture<Void> delay(long millis) {
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        Timeout timeout = timer.newTimeout(t -> f.complete(null), millis, TimeUnit.MILLISECONDS);
+        f.whenComplete((v, ex) -> timeout.cancel());
+        return f;
+    }
+
+    public static boolean isPending(AmbitTask task) {
+        return task.getStatus().equals("Running") || task.getStatus().equals("Queued");
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.exception;
+
+/**
+ * Thrown when Ambit answers with an error status.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class AmbitResponseException extends AmbitClientException {
+
+    private final String uri;
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    public AmbitResponseException(String uri, int statusCode) {
+        this(uri, statusCode, -1);
+    }
+
+    public AmbitResponseException(String uri, int statusCode, long retryAfterMillis) {
+        this("Ambit responded with status " + statusCode + ": " + uri, uri, statusCode, retryAfterMillis);
+    }
+
+    protected AmbitResponseException(String message, String uri, int statusCode, long retryAfterMillis) {
+        super(message);
+        this.uri = uri;
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns how long Ambit asked to wait before trying again, or -1 if
+     * it did not say.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Returns whether the status tells that Ambit failed or is overloaded,
+     * rather than that the request was wrong.
+     */
+    public boolean isServerError() {
+        return statusCode >= 500 || statusCode == 429;
+    }
+}
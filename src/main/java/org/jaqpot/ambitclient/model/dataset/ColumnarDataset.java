@@ -0,0 +1,393 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.model.dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * A column oriented view of a {@link Dataset}. Numeric features are held in
+ * one {@code double[]} per feature with {@code NaN} for missing values,
+ * string features are dictionary encoded, and each row index maps to the
+ * {@link Substance} it describes. There is one column per feature of the
+ * dataset, in the order of its features, whether or not the feature has
+ * values. Numbers are read back with the type they were added with, and
+ * rows can still be read back as {@link DataEntry} objects.
+ *
+ * @author Pantelis Sopasakis
+ * @author Charalampos Chomenidis
+ *
+ */
+public class ColumnarDataset {
+
+    private final Dataset header;
+    private final int rowCount;
+    private final Substance[] compounds;
+    private final Map<String, Integer> rowsByCompound;
+    private final Map<String, Column> columns;
+
+    private ColumnarDataset(Dataset header, int rowCount, Substance[] compounds, Map<String, Column> columns) {
+        this.header = header;
+        this.rowCount = rowCount;
+        this.compounds = compounds;
+        this.columns = columns;
+        this.rowsByCompound = new HashMap<>(rowCount * 2);
+        for (int row = 0; row < rowCount; row++) {
+            if (compounds[row] != null && compounds[row].getURI() != null) {
+                rowsByCompound.putIfAbsent(compounds[row].getURI(), row);
+            }
+        }
+    }
+
+    /**
+     * Returns the dataset fields other than the rows.
+     */
+    public Dataset getHeader() {
+        return header;
+    }
+
+    public Set<FeatureInfo> getFeatures() {
+        return header.getFeatures();
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    public Substance getCompound(int row) {
+        return compounds[row];
+    }
+
+    /**
+     * Returns the row of the given compound URI, or -1 if it is not in the
+     * dataset.
+     */
+    public int getRow(String compoundURI) {
+        Integer row = rowsByCompound.get(compoundURI);
+        return row == null ? -1 : row;
+    }
+
+    public boolean isNumeric(String featureURI) {
+        return columns.get(featureURI) instanceof NumericColumn;
+    }
+
+    /**
+     * Returns the values of a numeric feature, with {@code NaN} for missing
+     * values. The array is the one backing this dataset and must not be
+     * modified.
+     */
+    public double[] getNumericColumn(String featureURI) {
+        Column column = columns.get(featureURI);
+        if (column == null) {
+            return null;
+        }
+        if (!(column instanceof NumericColumn)) {
+            throw new IllegalArgumentException("Feature " + featureURI + " is not numeric");
+        }
+        return ((NumericColumn) column).values;
+    }
+
+    public double[] getNumericColumn(FeatureInfo feature) {
+        return getNumericColumn(feature.getURI());
+    }
+
+    public Object getValue(int row, String featureURI) {
+        Column column = columns.get(featureURI);
+        return column == null ? null : column.get(row);
+    }
+
+    public DataEntry getDataEntry(int row) {
+        TreeMap<String, Object> values = new TreeMap<>();
+        for (Map.Entry<String, Column> e : columns.entrySet()) {
+            Object value = e.getValue().get(row);
+            if (value != null) {
+                values.put(e.getKey(), value);
+            }
+        }
+        DataEntry entry = new DataEntry();
+        entry.setCompound(compounds[row]);
+        entry.setValues(values);
+        return entry;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarDataset{" + "datasetURI=" + header.getDatasetURI() + ", rows=" + rowCount + ", columns=" + columns.size() + '}';
+    }
+
+    /**
+     * Collects rows one at a time, for example from
+     * {@code DatasetResourceConsumer.streamDataset}, straight into columns.
+     * Each row can be dropped once it has been added, so when rows are
+     * decoded incrementally only the columns are ever kept. Rows must be
+     * added by one thread at a time.
+     */
+    public static class Builder implements Consumer<DataEntry> {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final Map<String, Column> columns = new LinkedHashMap<>();
+        private Substance[] compounds = new Substance[INITIAL_CAPACITY];
+        private int rowCount;
+
+        @Override
+        public void accept(DataEntry entry) {
+            int row = rowCount++;
+            if (row == compounds.length) {
+                compounds = Arrays.copyOf(compounds, compounds.length * 2);
+            }
+            compounds[row] = entry.getCompound();
+            if (entry.getValues() == null) {
+                return;
+            }
+            for (Map.Entry<String, Object> e : entry.getValues().entrySet()) {
+                if (e.getValue() == null) {
+                    continue;
+                }
+                Column column = columns.get(e.getKey());
+                if (column == null) {
+                    column = e.getValue() instanceof Number ? new NumericColumn() : new StringColumn();
+                    columns.put(e.getKey(), column);
+                }
+                if (!column.accepts(e.getValue())) {
+                    column = new ObjectColumn(column);
+                    columns.put(e.getKey(), column);
+                }
+                column.set(row, e.getValue());
+            }
+        }
+
+        /**
+         * Builds one column per feature of {@code header}. Values of
+         * features the header does not list are kept in columns after
+         * those.
+         */
+        public ColumnarDataset build(Dataset header) {
+            Map<String, Column> rest = new LinkedHashMap<>(columns);
+            Map<String, Column> ordered = new LinkedHashMap<>();
+            if (header.getFeatures() != null) {
+                for (FeatureInfo feature : header.getFeatures()) {
+                    Column column = rest.remove(feature.getURI());
+                    ordered.put(feature.getURI(), column == null ? new NumericColumn() : column);
+                }
+            }
+            ordered.putAll(rest);
+            for (Column column : ordered.values()) {
+                column.trim(rowCount);
+            }
+            return new ColumnarDataset(header, rowCount, Arrays.copyOf(compounds, rowCount), ordered);
+        }
+    }
+
+    private static abstract class Column {
+
+        abstract boolean accepts(Object value);
+
+        abstract void set(int row, Object value);
+
+        abstract Object get(int row);
+
+        abstract void trim(int size);
+    }
+
+    /**
+     * Holds numbers as doubles, remembering their type so that they are
+     * read back as they were added. Only numbers a double holds exactly are
+     * accepted. The type is kept once for the column, and per row only
+     * once the column mixes types.
+     */
+    private static class NumericColumn extends Column {
+
+        private double[] values = new double[0];
+        private Class<?> type;
+        private Class<?>[] types;
+
+        @Override
+        boolean accepts(Object value) {
+            if (value instanceof Long) {
+                long l = (Long) value;
+                return (long) (double) l == l;
+            }
+            return value instanceof Double || value instanceof Integer || value instanceof Float
+                    || value instanceof Short || value instanceof Byte;
+        }
+
+        @Override
+        void set(int row, Object value) {
+            if (row >= values.length) {
+                int length = values.length;
+                values = Arrays.copyOf(values, Math.max(row + 1, length * 2));
+                Arrays.fill(values, length, values.length, Double.NaN);
+            }
+            values[row] = ((Number) value).doubleValue();
+            if (type == null) {
+                type = value.getClass();
+            } else if (types == null && type != value.getClass()) {
+                types = new Class<?>[values.length];
+                Arrays.fill(types, type);
+            }
+            if (types != null) {
+                if (row >= types.length) {
+                    types = Arrays.copyOf(types, values.length);
+                }
+                types[row] = value.getClass();
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            double value = values[row];
+            if (Double.isNaN(value)) {
+                return null;
+            }
+            Class<?> rowType = types == null ? type : types[row];
+            if (rowType == Integer.class) {
+                return (int) value;
+            } else if (rowType == Long.class) {
+                return (long) value;
+            } else if (rowType == Float.class) {
+                return (float) value;
+            } else if (rowType == Short.class) {
+                return (short) value;
+            } else if (rowType == Byte.class) {
+                return (byte) value;
+            }
+            return value;
+        }
+
+        @Override
+        void trim(int size) {
+            int length = values.length;
+            values = Arrays.copyOf(values, size);
+            if (length < size) {
+                Arrays.fill(values, length, size, Double.NaN);
+            }
+            if (types != null) {
+                types = Arrays.copyOf(types, size);
+            }
+        }
+    }
+
+    private static class StringColumn extends Column {
+
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        private int[] rows = new int[0];
+
+        @Override
+        boolean accepts(Object value) {
+            return value instanceof String;
+        }
+
+        @Override
+        void set(int row, Object value) {
+            if (row >= rows.length) {
+                int length = rows.length;
+                rows = Arrays.copyOf(rows, Math.max(row + 1, length * 2));
+                Arrays.fill(rows, length, rows.length, -1);
+            }
+            Integer code = codes.get((String) value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                codes.put((String) value, code);
+            }
+            rows[row] = code;
+        }
+
+        @Override
+        Object get(int row) {
+            int code = rows[row];
+            return code < 0 ? null : dictionary.get(code);
+        }
+
+        @Override
+        void trim(int size) {
+            int length = rows.length;
+            rows = Arrays.copyOf(rows, size);
+            if (length < size) {
+                Arrays.fill(rows, length, size, -1);
+            }
+        }
+    }
+
+    /**
+     * Holds features whose values are neither all numbers nor all strings.
+     */
+    private static class ObjectColumn extends Column {
+
+        private Object[] values;
+
+        ObjectColumn(Column previous) {
+            int size = previous instanceof NumericColumn
+                    ? ((NumericColumn) previous).values.length
+                    : ((StringColumn) previous).rows.length;
+            values = new Object[size];
+            for (int row = 0; row < size; row++) {
+                values[row] = previous.get(row);
+            }
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return true;
+        }
+
+        @Override
+        void set(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+            }
+            values[row] = value;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+}
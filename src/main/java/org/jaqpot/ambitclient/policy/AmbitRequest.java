@@ -0,0 +1,158 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.net.URI;
+import org.jaqpot.ambitclient.Deadline;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+
+/**
+ * Describes a request to Ambit to the {@link RequestPolicy request policies}
+ * it goes through.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public final class AmbitRequest {
+
+    private final String method;
+    private final String uri;
+    private final String subjectId;
+    private final ResourceType type;
+    private final boolean replayable;
+    private final Deadline deadline;
+
+    public AmbitRequest(String method, String uri, String subjectId, ResourceType type) {
+        this(method, uri, subjectId, type, true);
+    }
+
+    public AmbitRequest(String method, String uri, String subjectId, ResourceType type, boolean replayable) {
+        this(method, uri, subjectId, type, replayable, null);
+    }
+
+    public AmbitRequest(String method, String uri, String subjectId, ResourceType type, boolean replayable, Deadline deadline) {
+        this.method = method;
+        this.uri = uri;
+        this.subjectId = subjectId;
+        this.type = type;
+        this.replayable = replayable;
+        this.deadline = deadline;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public String getSubjectId() {
+        return subjectId;
+    }
+
+    /**
+     * Returns the type of resource read, or null if the request is not a
+     * typed read.
+     */
+    public ResourceType getType() {
+        return type;
+    }
+
+    /**
+     * Returns whether sending the request twice has the same effect on
+     * Ambit as sending it once. GETs and PUTs are; POSTs create resources
+     * and are not.
+     */
+    public boolean isIdempotent() {
+        return !"POST".equals(method);
+    }
+
+    /**
+     * Returns whether the request may be sent again at all. Streamed reads
+     * hand out data while they are received and cannot be.
+     */
+    public boolean isReplayable() {
+        return replayable;
+    }
+
+    /**
+     * Returns the deadline of the operation the request is part of, or null
+     * if it has none.
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public String getHost() {
+        URI parsed = URI.create(uri);
+        return parsed.getPort() < 0 ? parsed.getHost() : parsed.getHost() + ":" + parsed.getPort();
+    }
+
+    /**
+     * Returns a name shared by all requests to the same kind of resource:
+     * the method, the path with every segment holding an id replaced by
+     * {@code *}, and the names of the query parameters. A dataset, a page
+     * of it and a task poll thus fall under different endpoints.
+     */
+    public String getEndpoint() {
+        URI parsed = URI.create(uri);
+        StringBuilder endpoint = new StringBuilder(method).append(' ');
+        String path = parsed.getRawPath() == null ? "" : parsed.getRawPath();
+        String[] segments = path.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            endpoint.append(i == 0 ? "" : "/").append(isId(segments[i]) ? "*" : segments[i]);
+        }
+        String query = parsed.getRawQuery();
+        if (query != null && !query.isEmpty()) {
+            char separator = '?';
+            for (String parameter : query.split("&")) {
+                int eq = parameter.indexOf('=');
+                endpoint.append(separator).append(eq < 0 ? parameter : parameter.substring(0, eq));
+                separator = '&';
+            }
+        }
+        return endpoint.toString();
+    }
+
+    private static boolean isId(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + uri;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.jaqpot.ambitclient.exception.CircuitOpenException;
+import org.jaqpot.ambitclient.util.Futures;
+
+/**
+ * Stops sending requests to an Ambit host that keeps failing, and fails
+ * them at once with a {@link CircuitOpenException} instead.
+ *
+ * The outcomes of the last requests to each host are kept in a sliding
+ * window. A request fails if it cannot connect, times out, or gets a 5xx
+ * or 429 answer, and is slow if it takes longer than the slow call
+ * duration. Once the window holds enough requests and either the failure
+ * rate or the slow call rate reaches its threshold, the circuit opens.
+ * After the open duration it becomes half-open and lets a few probe
+ * requests through: if enough of them succeed the circuit closes,
+ * otherwise it opens again.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class CircuitBreaker implements RequestPolicy {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openMillis;
+    private final int probes;
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    private CircuitBreaker(Builder builder) {
+        this.windowSize = builder.windowSize;
+        this.minCalls = Math.min(builder.minCalls, builder.windowSize);
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(builder.slowCallMillis);
+        this.openMillis = builder.openMillis;
+        this.probes = builder.probes;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> execute(AmbitRequest request, Supplier<CompletableFuture<T>> attempt) {
+        String host = request.getHost();
+        Circuit circuit = circuits.computeIfAbsent(host, (key) -> new Circuit());
+        long generation = circuit.admit(System.currentTimeMillis());
+        if (generation < 0) {
+            return Failures.failed(new CircuitOpenException(host, circuit.retryAfterMillis(System.currentTimeMillis())));
+        }
+        long started = System.nanoTime();
+        CompletableFuture<T> future = Failures.call(attempt);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Futures.propagateCancel(result, future);
+        future.whenComplete((value, ex) -> {
+            if (future.isCancelled()) {
+                circuit.abandon(generation);
+            } else {
+                boolean failure = ex != null && (Failures.isOverload(ex) || Failures.isTransient(ex));
+                circuit.record(generation, failure, System.nanoTime() - started >= slowCallNanos, System.currentTimeMillis());
+            }
+            if (ex != null) {
+                result.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the state of the circuit to the given host, as returned by
+     * {@link AmbitRequest#getHost()}.
+     */
+    public State getState(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.state(System.currentTimeMillis());
+    }
+
+    /**
+     * The state of the requests to one host. Every change of state starts a
+     * new generation, and outcomes of requests admitted in an earlier one
+     * are ignored.
+     */
+    private final class Circuit {
+
+        private final byte[] window = new byte[windowSize];
+        private State state = State.CLOSED;
+        private long generation;
+        private long openedAt;
+        private int calls;
+        private int next;
+        private int failures;
+        private int slowCalls;
+        private int probesStarted;
+        private int probesFinished;
+        private int probesFailed;
+
+        /**
+         * Returns the generation the request is admitted in, or -1 if it
+         * may not be sent.
+         */
+        synchronized long admit(long now) {
+            switch (state(now)) {
+                case CLOSED:
+                    return generation;
+                case HALF_OPEN:
+                    if (probesStarted < probes) {
+                        probesStarted++;
+                        return generation;
+                    }
+                    return -1;
+                default:
+                    return -1;
+            }
+        }
+
+        synchronized State state(long now) {
+            if (state == State.OPEN && now - openedAt >= openMillis) {
+                transition(State.HALF_OPEN, now);
+            }
+            return state;
+        }
+
+        synchronized long retryAfterMillis(long now) {
+            return state == State.OPEN ? Math.max(0, openedAt + openMillis - now) : Math.min(1000, openMillis);
+        }
+
+        synchronized void record(long admitted, boolean failure, boolean slow, long now) {
+            if (admitted != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                probesFinished++;
+                if (failure || slow) {
+                    probesFailed++;
+                }
+                if (probesFinished == probes) {
+                    transition((double) probesFailed / probes >= failureRateThreshold ? State.OPEN : State.CLOSED, now);
+                }
+                return;
+            }
+            if (calls == windowSize) {
+                forget(window[next]);
+            } else {
+                calls++;
+            }
+            byte outcome = (byte) ((failure ? 1 : 0) | (slow ? 2 : 0));
+            window[next] = outcome;
+            next = (next + 1) % windowSize;
+            failures += outcome & 1;
+            slowCalls += outcome >> 1;
+            if (calls >= minCalls && ((double) failures / calls >= failureRateThreshold
+                    || (double) slowCalls / calls >= slowCallRateThreshold)) {
+                transition(State.OPEN, now);
+            }
+        }
+
+        /**
+         * Frees the probe slot of a request that was cancelled before it
+         * had an outcome.
+         */
+        synchronized void abandon(long admitted) {
+            if (admitted == generation && state == State.HALF_OPEN) {
+                probesStarted--;
+            }
+        }
+
+        private void forget(byte outcome) {
+            failures -= outcome & 1;
+            slowCalls -= outcome >> 1;
+        }
+
+        private void transition(State to, long now) {
+            state = to;
+            generation++;
+            openedAt = now;
+            calls = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+            probesStarted = 0;
+            probesFinished = 0;
+            probesFailed = 0;
+        }
+    }
+
+    public static class Builder {
+
+        private int windowSize = 50;
+        private int minCalls = 20;
+        private double failureRateThreshold = 0.5;
+        private double slowCallRateThreshold = 1.0;
+        private long slowCallMillis = 10000;
+        private long openMillis = 5000;
+        private int probes = 3;
+
+        /**
+         * Sets how many of the latest requests to a host are considered.
+         */
+        public Builder setWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * Sets how many requests the window must hold before the circuit
+         * can open.
+         */
+        public Builder setMinCalls(int minCalls) {
+            this.minCalls = minCalls;
+            return this;
+        }
+
+        public Builder setFailureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        public Builder setSlowCallRateThreshold(double slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        public Builder setSlowCallDuration(long duration, TimeUnit unit) {
+            this.slowCallMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Sets how long an open circuit fails requests before probing the
+         * host again.
+         */
+        public Builder setOpenDuration(long duration, TimeUnit unit) {
+            this.openMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Sets how many probe requests a half-open circuit lets through.
+         */
+        public Builder setProbes(int probes) {
+            this.probes = probes;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+}
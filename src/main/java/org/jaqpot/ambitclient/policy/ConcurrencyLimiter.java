@@ -0,0 +1,294 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.jaqpot.ambitclient.util.Futures;
+
+/**
+ * Limits the number of requests in flight to Ambit and adapts the limit to
+ * what the server can take.
+ *
+ * The limit grows by one per round trip's worth of successful requests
+ * while it is being used and latency stays near its long-term average. It
+ * shrinks multiplicatively, at most once per round trip, when a request
+ * times out, fails with a 5xx or 429, or when the short-term latency rises
+ * above the long-term one by more than the tolerated ratio. Latency is
+ * averaged per endpoint, so that a few large dataset downloads are only
+ * compared with other downloads, not with quick task polls. Streamed reads
+ * last as long as their reader takes to consume them, so they neither
+ * feed the averages nor grow the limit.
+ *
+ * Requests over the limit wait in one queue per subject, served in turn,
+ * so that a single caller's burst cannot starve the others. Waiting
+ * requests that were cancelled are dropped without being sent, and the
+ * queues are drained in a loop, so that requests failing or being skipped
+ * at once never recurse into the next.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ConcurrencyLimiter implements RequestPolicy {
+
+    private static final double SHORT_SMOOTHING = 0.2;
+    private static final double LONG_SMOOTHING = 0.02;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private final Map<String, ArrayDeque<Waiting>> waiting = new HashMap<>();
+    private final ArrayDeque<String> turns = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private final Map<String, Rtt> rtts = new HashMap<>();
+    private long lastBackoff;
+    private final AtomicInteger draining = new AtomicInteger();
+
+    private ConcurrencyLimiter(Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.backoffRatio = builder.backoffRatio;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, builder.initialLimit));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> execute(AmbitRequest request, Supplier<CompletableFuture<T>> attempt) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> run(request, attempt, result);
+        synchronized (this) {
+            if (queued > 0 || inFlight >= (int) limit) {
+                String subject = request.getSubjectId() == null ? "" : request.getSubjectId();
+                ArrayDeque<Waiting> queue = waiting.get(subject);
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    waiting.put(subject, queue);
+                    turns.add(subject);
+                }
+                queue.add(new Waiting(result, start));
+                queued++;
+                return result;
+            }
+            inFlight++;
+        }
+        start.run();
+        drain();
+        return result;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    private <T> void run(AmbitRequest request, Supplier<CompletableFuture<T>> attempt, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            release(request, 0, new CancellationException());
+            return;
+        }
+        long started = System.nanoTime();
+        CompletableFuture<T> future = Failures.call(attempt);
+        Futures.propagateCancel(result, future);
+        future.whenComplete((value, ex) -> {
+            release(request, System.nanoTime() - started, ex);
+            if (ex != null) {
+                result.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    private void release(AmbitRequest request, long rttNanos, Throwable failure) {
+        synchronized (this) {
+            inFlight--;
+            long now = System.nanoTime();
+            String endpoint = request.getEndpoint();
+            Rtt rtt = rtts.get(endpoint);
+            if (rtt == null) {
+                rtt = new Rtt();
+                rtts.put(endpoint, rtt);
+            }
+            if (failure != null && Failures.isOverload(failure)) {
+                backoff(now, rtt);
+            } else if (failure == null && request.isReplayable()) {
+                rtt.add(rttNanos);
+                if (rtt.shortRtt > rtt.longRtt * latencyTolerance) {
+                    backoff(now, rtt);
+                } else if (inFlight + 1 >= limit / 2) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Starts waiting requests while the limit allows. Only one thread drains
+     * at a time; a request that completes at once while it runs is picked up
+     * by its loop instead of draining again from within.
+     */
+    private void drain() {
+        if (draining.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            Runnable next;
+            while ((next = poll()) != null) {
+                next.run();
+            }
+        } while (draining.decrementAndGet() != 0);
+    }
+
+    private void backoff(long now, Rtt rtt) {
+        if (now - lastBackoff < rtt.shortRtt) {
+            return;
+        }
+        lastBackoff = now;
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+
+    /**
+     * Takes the next waiting request from the subject whose turn it is, if
+     * the limit allows another request in flight.
+     */
+    private synchronized Runnable poll() {
+        while (queued > 0 && inFlight < (int) limit) {
+            String subject = turns.poll();
+            ArrayDeque<Waiting> queue = waiting.get(subject);
+            Waiting next = queue.poll();
+            if (queue.isEmpty()) {
+                waiting.remove(subject);
+            } else {
+                turns.add(subject);
+            }
+            queued--;
+            if (!next.result.isDone()) {
+                inFlight++;
+                return next.start;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Short- and long-term averages of the round trip time of one endpoint.
+     */
+    private static class Rtt {
+
+        private double shortRtt;
+        private double longRtt;
+
+        void add(long rttNanos) {
+            shortRtt = shortRtt == 0 ? rttNanos : shortRtt + SHORT_SMOOTHING * (rttNanos - shortRtt);
+            longRtt = longRtt == 0 ? rttNanos : longRtt + LONG_SMOOTHING * (rttNanos - longRtt);
+        }
+    }
+
+    private static class Waiting {
+
+        private final CompletableFuture<?> result;
+        private final Runnable start;
+
+        Waiting(CompletableFuture<?> result, Runnable start) {
+            this.result = result;
+            this.start = start;
+        }
+    }
+
+    public static class Builder {
+
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 1000;
+        private double backoffRatio = 0.9;
+        private double latencyTolerance = 2.0;
+
+        public Builder setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * Sets the lowest the limit may fall to; at least one.
+         */
+        public Builder setMinLimit(int minLimit) {
+            if (minLimit < 1) {
+                throw new IllegalArgumentException("Minimum limit must be positive: " + minLimit);
+            }
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public Builder setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * Sets the factor the limit is multiplied by when Ambit shows
+         * signs of overload.
+         */
+        public Builder setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Sets how many times the long-term average latency the short-term
+         * latency may reach before the limit is lowered.
+         */
+        public Builder setLatencyTolerance(double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        public ConcurrencyLimiter build() {
+            return new ConcurrencyLimiter(this);
+        }
+    }
+}
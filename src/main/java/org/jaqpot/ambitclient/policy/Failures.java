@@ -0,0 +1,106 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+
+/**
+ * Classifies the failures of requests to Ambit.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public final class Failures {
+
+    private Failures() {
+    }
+
+    /**
+     * Strips the exceptions that only wrap the cause of a failure.
+     */
+    public static Throwable unwrap(Throwable t) {
+        while (t != null && t.getCause() != null
+                && (t instanceof CompletionException || t instanceof ExecutionException || t.getClass() == AmbitClientException.class)) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * Returns whether the failure suggests that Ambit is overloaded: a
+     * timeout, a 5xx or a 429.
+     */
+    public static boolean isOverload(Throwable t) {
+        Throwable cause = unwrap(t);
+        if (cause instanceof AmbitResponseException) {
+            return ((AmbitResponseException) cause).isServerError();
+        }
+        return cause instanceof TimeoutException;
+    }
+
+    /**
+     * Returns whether the failure is likely to go away if the request is
+     * sent again: a connection error, a timeout, a 429 or a 502, 503 or
+     * 504.
+     */
+    public static boolean isTransient(Throwable t) {
+        Throwable cause = unwrap(t);
+        if (cause instanceof AmbitResponseException) {
+            int status = ((AmbitResponseException) cause).getStatusCode();
+            return status == 429 || status == 502 || status == 503 || status == 504;
+        }
+        return cause instanceof IOException || cause instanceof TimeoutException;
+    }
+
+    /**
+     * Calls the supplier, turning an exception it throws into a failed
+     * future.
+     */
+    static <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> supplier) {
+        try {
+            return supplier.get();
+        } catch (RuntimeException ex) {
+            return failed(ex);
+        }
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(t);
+        return f;
+    }
+}
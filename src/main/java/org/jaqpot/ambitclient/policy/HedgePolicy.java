@@ -0,0 +1,252 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+
+/**
+ * Sends a second copy of a slow read and uses whichever answer arrives
+ * first, cancelling the other.
+ *
+ * A read is hedged once it has taken longer than the configured percentile
+ * of recent latencies of its endpoint, measured per request method and
+ * resource type. No read is hedged until its endpoint has enough samples.
+ * Every read earns a fraction of a hedge and every hedge spends a whole
+ * one, so hedges stay below that fraction of the traffic, with a small
+ * burst allowed after a quiet period.
+ *
+ * Only replayable GETs are hedged, optionally restricted to some resource
+ * types.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class HedgePolicy implements RequestPolicy {
+
+    private static final long MILLI_TOKENS = 1000;
+    private static final long MAX_TOKENS = 10 * MILLI_TOKENS;
+
+    private final Timer timer;
+    private final double percentile;
+    private final long tokenRatio;
+    private final Set<ResourceType> types;
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+    private final AtomicLong hedged = new AtomicLong();
+
+    private HedgePolicy(Builder builder, Timer timer) {
+        this.timer = timer;
+        this.percentile = builder.percentile;
+        this.tokenRatio = (long) (builder.maxHedgeRatio * MILLI_TOKENS);
+        this.types = builder.types;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> execute(AmbitRequest request, Supplier<CompletableFuture<T>> attempt) {
+        if (!"GET".equals(request.getMethod()) || !request.isReplayable()
+                || (!types.isEmpty() && !types.contains(request.getType()))) {
+            return attempt.get();
+        }
+        LatencyHistogram histogram = histograms.computeIfAbsent(request.getEndpoint(), (endpoint) -> new LatencyHistogram());
+        deposit();
+        long started = System.nanoTime();
+        Hedged<T> hedge = new Hedged<>(attempt);
+        hedge.result.whenComplete((value, ex) -> {
+            if (ex == null) {
+                histogram.record(System.nanoTime() - started);
+            }
+        });
+        long delay = histogram.percentileMicros(percentile);
+        hedge.start(delay < 0 ? null : timer.newTimeout((t) -> {
+            if (!hedge.result.isDone() && withdraw()) {
+                hedged.incrementAndGet();
+                hedge.start(null);
+            }
+        }, delay, TimeUnit.MICROSECONDS));
+        return hedge.result;
+    }
+
+    /**
+     * Returns the number of hedges sent so far.
+     */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    private void deposit() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= MAX_TOKENS) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(MAX_TOKENS, current + tokenRatio)));
+    }
+
+    private boolean withdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < MILLI_TOKENS) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - MILLI_TOKENS));
+        return true;
+    }
+
+    /**
+     * The attempts of one read. The result takes the first answer, or the
+     * last failure once no attempt is left running and no hedge is due;
+     * completing it cancels the attempts still running.
+     */
+    private static final class Hedged<T> {
+
+        private final Supplier<CompletableFuture<T>> attempt;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private CompletableFuture<T> first;
+        private CompletableFuture<T> second;
+        private Timeout pending;
+        private int running;
+
+        Hedged(Supplier<CompletableFuture<T>> attempt) {
+            this.attempt = attempt;
+            result.whenComplete((value, ex) -> cancel());
+        }
+
+        /**
+         * Starts an attempt, and remembers the timeout that will start the
+         * hedge, if any.
+         */
+        void start(Timeout next) {
+            synchronized (this) {
+                if (result.isDone()) {
+                    if (next != null) {
+                        next.cancel();
+                    }
+                    return;
+                }
+                running++;
+                pending = next;
+            }
+            CompletableFuture<T> future = Failures.call(attempt);
+            synchronized (this) {
+                if (first == null) {
+                    first = future;
+                } else {
+                    second = future;
+                }
+            }
+            future.whenComplete((value, ex) -> {
+                if (ex == null) {
+                    result.complete(value);
+                    return;
+                }
+                boolean last;
+                synchronized (this) {
+                    last = --running == 0 && (pending == null || pending.isExpired() || pending.cancel());
+                }
+                if (last) {
+                    result.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                }
+            });
+            if (result.isDone()) {
+                future.cancel(true);
+            }
+        }
+
+        private void cancel() {
+            CompletableFuture<?>[] attempts;
+            synchronized (this) {
+                if (pending != null) {
+                    pending.cancel();
+                }
+                attempts = new CompletableFuture<?>[]{first, second};
+            }
+            for (CompletableFuture<?> future : attempts) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private double percentile = 0.95;
+        private double maxHedgeRatio = 0.05;
+        private Set<ResourceType> types = Collections.emptySet();
+
+        /**
+         * Sets the fraction of recent reads of an endpoint that must have
+         * completed before a slower read is hedged.
+         */
+        public Builder setPercentile(double percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * Sets the largest fraction of reads that may be hedged.
+         */
+        public Builder setMaxHedgeRatio(double maxHedgeRatio) {
+            this.maxHedgeRatio = maxHedgeRatio;
+            return this;
+        }
+
+        /**
+         * Hedges only reads of the given resource types. By default every
+         * read is.
+         */
+        public Builder setResourceTypes(ResourceType... types) {
+            this.types = types.length == 0 ? Collections.emptySet() : EnumSet.copyOf(Arrays.asList(types));
+            return this;
+        }
+
+        /**
+         * Builds a policy that schedules its hedges on the given timer.
+         */
+        public HedgePolicy build(Timer timer) {
+            return new HedgePolicy(this, timer);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of recent request latencies. Each power of two of
+ * microseconds is split into four buckets, so percentiles are accurate to
+ * within 25% at any scale.
+ *
+ * Counts are halved every {@value #WINDOW} samples, so the histogram follows
+ * changes in latency instead of averaging over the client's lifetime.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 38 * SUB_BUCKETS;
+    private static final int WINDOW = 1000;
+    private static final int MIN_SAMPLES = 50;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private long total;
+    private long sinceDecay;
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(Math.max(1, nanos / 1000)));
+        synchronized (this) {
+            total++;
+            if (++sinceDecay < WINDOW) {
+                return;
+            }
+            sinceDecay = 0;
+            total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long count;
+                do {
+                    count = counts.get(i);
+                } while (!counts.compareAndSet(i, count, count / 2));
+                total += count / 2;
+            }
+        }
+    }
+
+    /**
+     * Returns the latency in microseconds below which the given fraction of
+     * recent requests completed, or -1 if there are too few samples yet.
+     */
+    long percentileMicros(double fraction) {
+        long samples;
+        synchronized (this) {
+            samples = total;
+        }
+        if (samples < MIN_SAMPLES) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(samples * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    private static int bucket(long micros) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = magnitude < 2 ? 0 : (int) ((micros >> (magnitude - 2)) & (SUB_BUCKETS - 1));
+        return Math.min(BUCKETS - 1, magnitude * SUB_BUCKETS + sub);
+    }
+
+    private static long upperBound(int bucket) {
+        int magnitude = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        return magnitude < 2 ? 1L << (magnitude + 1) : (1L << magnitude) + ((sub + 1L) << (magnitude - 2));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Runs requests through a chain of {@link RequestPolicy policies}, the
+ * first of which sees each request first and each outcome last.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class RequestPipeline {
+
+    private final List<RequestPolicy> policies;
+
+    public RequestPipeline(RequestPolicy... policies) {
+        this(Arrays.asList(policies));
+    }
+
+    public RequestPipeline(List<RequestPolicy> policies) {
+        this.policies = Collections.unmodifiableList(new ArrayList<>(policies));
+    }
+
+    public List<RequestPolicy> getPolicies() {
+        return policies;
+    }
+
+    public <T> CompletableFuture<T> execute(AmbitRequest request, Supplier<CompletableFuture<T>> attempt) {
+        Supplier<CompletableFuture<T>> call = () -> Failures.call(attempt);
+        for (int i = policies.size() - 1; i >= 0; i--) {
+            RequestPolicy policy = policies.get(i);
+            Supplier<CompletableFuture<T>> next = call;
+            call = () -> Failures.call(() -> policy.execute(request, next));
+        }
+        return call.get();
+    }
+}
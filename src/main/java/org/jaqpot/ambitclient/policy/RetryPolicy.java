@@ -0,0 +1,227 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import io.netty.util.Timer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.jaqpot.ambitclient.Deadline;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.jaqpot.ambitclient.util.Futures;
+
+/**
+ * Sends a request again when it fails with a transient error: a connection
+ * error, a timeout, a 429 or a 502, 503 or 504.
+ *
+ * Only idempotent requests are retried, that is GETs and PUTs such as the
+ * bundle {@code add} commands, unless retrying other requests is allowed
+ * explicitly. Retries wait for a capped exponential backoff with full
+ * jitter, or for as long as Ambit asked in a {@code Retry-After} header.
+ *
+ * Each operation is retried a limited number of times, and all operations
+ * share a token bucket: every transient failure takes a token, every
+ * success returns a fraction of one, and retries are only sent while the
+ * bucket is more than half full. When Ambit is degraded the bucket drains
+ * and failures are returned at once instead of multiplying the load.
+ * Cancelling a request cancels its attempt in flight and any retry not
+ * yet sent, and no retry is scheduled past the request's deadline.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class RetryPolicy implements RequestPolicy {
+
+    private static final long MILLI_TOKENS = 1000;
+
+    private final Timer timer;
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final boolean retryNonIdempotent;
+    private final long maxTokens;
+    private final long tokenRatio;
+    private final AtomicLong tokens;
+
+    private RetryPolicy(Builder builder, Timer timer) {
+        this.timer = timer;
+        this.maxRetries = builder.maxRetries;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+        this.maxTokens = builder.maxTokens * MILLI_TOKENS;
+        this.tokenRatio = (long) (builder.tokenRatio * MILLI_TOKENS);
+        this.tokens = new AtomicLong(maxTokens);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> execute(AmbitRequest request, Supplier<CompletableFuture<T>> attempt) {
+        if (!request.isReplayable() || !(request.isIdempotent() || retryNonIdempotent)) {
+            return attempt.get();
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        send(request, attempt, 0, result);
+        return result;
+    }
+
+    /**
+     * Returns the number of tokens left in the retry budget.
+     */
+    public double getTokens() {
+        return (double) tokens.get() / MILLI_TOKENS;
+    }
+
+    private <T> void send(AmbitRequest request, Supplier<CompletableFuture<T>> attempt, int retries, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> future = Failures.call(attempt);
+        Futures.propagateCancel(result, future);
+        future.whenComplete((value, ex) -> {
+            if (ex == null) {
+                deposit();
+                result.complete(value);
+                return;
+            }
+            Throwable failure = ex instanceof CompletionException ? ex.getCause() : ex;
+            if (!Failures.isTransient(failure)) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            if (!withdraw() || retries >= maxRetries) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            long delay = delayMillis(retries, failure);
+            Deadline deadline = request.getDeadline();
+            if (deadline != null && delay >= deadline.remaining(TimeUnit.MILLISECONDS)) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            timer.newTimeout((t) -> send(request, attempt, retries + 1, result), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private long delayMillis(int retries, Throwable failure) {
+        Throwable cause = Failures.unwrap(failure);
+        if (cause instanceof AmbitResponseException && ((AmbitResponseException) cause).getRetryAfterMillis() >= 0) {
+            return Math.min(maxDelayMillis, ((AmbitResponseException) cause).getRetryAfterMillis());
+        }
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retries, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private void deposit() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= maxTokens) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(maxTokens, current + tokenRatio)));
+    }
+
+    /**
+     * Takes a token for a failure and returns whether the bucket still
+     * allows a retry.
+     */
+    private boolean withdraw() {
+        long current;
+        long next;
+        do {
+            current = tokens.get();
+            next = Math.max(0, current - MILLI_TOKENS);
+        } while (!tokens.compareAndSet(current, next));
+        return next > maxTokens / 2;
+    }
+
+    public static class Builder {
+
+        private int maxRetries = 3;
+        private long baseDelayMillis = 100;
+        private long maxDelayMillis = 10000;
+        private boolean retryNonIdempotent;
+        private int maxTokens = 10;
+        private double tokenRatio = 0.1;
+
+        /**
+         * Sets how many times a single operation may be retried.
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder setBaseDelay(long delay, TimeUnit unit) {
+            this.baseDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        public Builder setMaxDelay(long delay, TimeUnit unit) {
+            this.maxDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Retries POSTs as well, which may create a resource twice.
+         */
+        public Builder setRetryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        /**
+         * Sets the size of the token bucket shared by all retries.
+         */
+        public Builder setMaxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /**
+         * Sets the fraction of a token each successful request returns to
+         * the bucket.
+         */
+        public Builder setTokenRatio(double tokenRatio) {
+            this.tokenRatio = tokenRatio;
+            return this;
+        }
+
+        /**
+         * Builds a policy that schedules its retries on the given timer.
+         */
+        public RetryPolicy build(Timer timer) {
+            return new RetryPolicy(this, timer);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.serialize;
+
+import java.util.function.Consumer;
+
+/**
+ * Optional extension of {@link Serializer} for implementations backed by a
+ * non-blocking parser. When the serializer given to the client implements
+ * it, responses are decoded while they are being received instead of being
+ * buffered and parsed at the end.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public interface IncrementalSerializer extends Serializer {
+
+    public <T> IncrementalParser<T> newParser(Class<T> valueType);
+
+    /**
+     * Returns a parser that hands every element of the array field
+     * {@code elementField} to {@code elementConsumer} as soon as it has been
+     * decoded, instead of collecting them into the result. The consumer is
+     * called from {@link IncrementalParser#feed} and
+     * {@link IncrementalParser#complete}, on the I/O thread, and only queues
+     * the element for the client to pass on.
+     */
+    public <T, E> IncrementalParser<T> newParser(Class<T> valueType, String elementField, Class<E> elementType, Consumer<? super E> elementConsumer);
+}
@@ -0,0 +1,136 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.task;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
+
+/**
+ * Decides when a pending Ambit task should be polled next.
+ *
+ * Completion times are learned per task name from the {@code started} and
+ * {@code completed} fields of finished tasks. The first poll waits for
+ * about the median duration seen so far, later polls back off
+ * exponentially with jitter, and a {@code Retry-After} header sent by
+ * Ambit always takes precedence. Ambit's timestamps are only ever
+ * subtracted from each other, never compared with the local clock, so
+ * clock skew between the client and Ambit does not shift the polls.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class PollScheduler {
+
+    private static final long MIN_INTERVAL_MILLIS = 20;
+    private static final long MAX_INTERVAL_MILLIS = 10000;
+    private static final int SAMPLES_PER_NAME = 32;
+    private static final int MAX_NAMES = 256;
+
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final Map<String, Samples> durations = new ConcurrentHashMap<>();
+
+    public PollScheduler() {
+        this(MIN_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS);
+    }
+
+    public PollScheduler(long minIntervalMillis, long maxIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    public void record(AmbitTask task) {
+        if (task.getName() == null || task.getStarted() == null || task.getCompleted() == null) {
+            return;
+        }
+        long duration = task.getCompleted() - task.getStarted();
+        if (duration < 0) {
+            return;
+        }
+        Samples samples = durations.get(task.getName());
+        if (samples == null) {
+            if (durations.size() >= MAX_NAMES) {
+                return;
+            }
+            samples = durations.computeIfAbsent(task.getName(), n -> new Samples());
+        }
+        samples.add(duration);
+    }
+
+    /**
+     * Returns the median completion time recorded for tasks with this name,
+     * or -1 when nothing has been recorded yet.
+     */
+    public long expectedMillis(String name) {
+        Samples samples = name == null ? null : durations.get(name);
+        return samples == null ? -1 : samples.median();
+    }
+
+    /**
+     * Returns how long after the client received a new task it should first
+     * be polled.
+     */
+    public long firstDelay(AmbitTask task) {
+        long expected = expectedMillis(task.getName());
+        return expected < 0 ? 0 : Math.min(maxIntervalMillis, expected);
+    }
+
+    public long nextDelay(String name, int attempt) {
+        long expected = expectedMillis(name);
+        long base = Math.max(minIntervalMillis, expected / 8);
+        long delay = Math.min(maxIntervalMillis, base << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static class Samples {
+
+        private final long[] values = new long[SAMPLES_PER_NAME];
+        private int count;
+        private int next;
+
+        synchronized void add(long value) {
+            values[next] = value;
+            next = (next + 1) % values.length;
+            count = Math.min(count + 1, values.length);
+        }
+
+        synchronized long median() {
+            if (count == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return sorted[count / 2];
+        }
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.task;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jaqpot.ambitclient.Deadline;
+import org.jaqpot.ambitclient.consumer.TaskResourceConsumer;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.jaqpot.ambitclient.exception.CircuitOpenException;
+import org.jaqpot.ambitclient.exception.DeadlineExceededException;
+import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
+import org.jaqpot.ambitclient.policy.Failures;
+import org.jaqpot.ambitclient.util.RetryAfter;
+
+/**
+ * Tracks any number of Ambit tasks with a single polling loop on a shared
+ * timer. Callers watching the same task share one watch and its polls.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class TaskWatcher implements Closeable {
+
+    private static final int MAX_IN_FLIGHT = 64;
+
+    private final TaskResourceConsumer taskConsumer;
+    private final Timer timer;
+    private final PollScheduler scheduler;
+    private final Semaphore inFlight;
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private Timeout nextTick;
+    private long nextTickAt = Long.MAX_VALUE;
+    private volatile Queue<Watch> backlog = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger draining = new AtomicInteger();
+    private volatile boolean closed;
+
+    public TaskWatcher(TaskResourceConsumer taskConsumer, Timer timer) {
+        this(taskConsumer, timer, new PollScheduler(), MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates a watcher that polls when {@code scheduler} says a task is
+     * due, keeping at most {@code maxInFlight} task requests open at once.
+     */
+    public TaskWatcher(TaskResourceConsumer taskConsumer, Timer timer, PollScheduler scheduler, int maxInFlight) {
+        this.taskConsumer = taskConsumer;
+        this.timer = timer;
+        this.scheduler = scheduler;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Watches a task until it finishes or {@code timeoutMillis} pass. Time
+     * spent waiting for an open circuit does not count against the
+     * timeout. Transient poll failures are retried; a failed task or any
+     * other error fails the watch. Cancelling the returned future stops
+     * waiting, and the poll in flight is cancelled once every caller of the
+     * task has cancelled.
+     */
+    public CompletableFuture<AmbitTask> watch(String taskId, long timeoutMillis, String subjectId) {
+        return register(taskId, null, 0, timeoutMillis, null, subjectId);
+    }
+
+    /**
+     * Watches a task returned by the request that created it, so that the
+     * first poll can be delayed by the time tasks with the same name usually
+     * take to finish. A task that is already finished is not polled at all.
+     */
+    public CompletableFuture<AmbitTask> watch(AmbitTask task, long timeoutMillis, String subjectId) {
+        return watch(task, timeoutMillis, null, subjectId);
+    }
+
+    /**
+     * Watches a task until {@code deadline} passes, failing with a
+     * {@link DeadlineExceededException} if it has not finished by then. The
+     * wait is not extended while the circuit is open.
+     */
+    public CompletableFuture<AmbitTask> watch(AmbitTask task, Deadline deadline, String subjectId) {
+        return watch(task, Math.max(0, deadline.remaining(TimeUnit.MILLISECONDS)), deadline, subjectId);
+    }
+
+    private CompletableFuture<AmbitTask> watch(AmbitTask task, long timeoutMillis, Deadline deadline, String subjectId) {
+        if (isCompleted(task)) {
+            scheduler.record(task);
+            return CompletableFuture.completedFuture(task);
+        }
+        if (isFailed(task)) {
+            CompletableFuture<AmbitTask> failed = new CompletableFuture<>();
+            failed.completeExceptionally(taskFailure(task));
+            return failed;
+        }
+        long firstDelay = scheduler.firstDelay(task);
+        return register(task.getId(), task.getName(), firstDelay, timeoutMillis, deadline, subjectId);
+    }
+
+    private CompletableFuture<AmbitTask> register(String taskId, String name, long firstDelay, long timeoutMillis, Deadline callerDeadline, String subjectId) {
+        if (closed) {
+            CompletableFuture<AmbitTask> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new AmbitClientException("Task watcher is closed"));
+            return failed;
+        }
+        long now = System.currentTimeMillis();
+        long deadline = now + timeoutMillis;
+        long firstPollAt = now + Math.min(firstDelay, timeoutMillis);
+        Watch watch = watches.compute(taskId + "|" + subjectId, (key, existing) -> {
+            if (existing == null || existing.future.isDone() || !existing.join(deadline)) {
+                return new Watch(key, taskId, name, subjectId, deadline, firstPollAt);
+            }
+            return existing;
+        });
+        schedule(watch.nextPollAt);
+
+        CompletableFuture<AmbitTask> result = new CompletableFuture<>();
+        AtomicReference<Timeout> timeout = new AtomicReference<>();
+        expireAfter(watch, result, timeout, timeoutMillis, watch.pausedMillis(now), callerDeadline);
+        watch.future.whenComplete((task, ex) -> {
+            timeout.get().cancel();
+            if (ex != null) {
+                result.completeExceptionally(watch.timedOut ? timeoutFailure(watch, callerDeadline) : ex);
+            } else {
+                result.complete(task);
+            }
+        });
+        result.whenComplete((task, ex) -> {
+            if (result.isCancelled()) {
+                timeout.get().cancel();
+                if (watch.leave()) {
+                    watches.remove(watch.key, watch);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Fails a caller after {@code delay}, unless the watch was paused by an
+     * open circuit in the meantime, in which case a caller without a
+     * deadline waits that much longer.
+     */
+    private void expireAfter(Watch watch, CompletableFuture<AmbitTask> result, AtomicReference<Timeout> timeout, long delay, long pausedAtStart, Deadline deadline) {
+        timeout.set(timer.newTimeout(t -> {
+            long paused = watch.pausedMillis(System.currentTimeMillis()) - pausedAtStart;
+            if (result.isDone()) {
+                return;
+            }
+            if (paused > 0 && deadline == null) {
+                expireAfter(watch, result, timeout, paused, pausedAtStart + paused, null);
+            } else {
+                result.completeExceptionally(timeoutFailure(watch, deadline));
+            }
+        }, delay, TimeUnit.MILLISECONDS));
+    }
+
+    private static RuntimeException timeoutFailure(Watch watch, Deadline deadline) {
+        if (deadline != null) {
+            return new DeadlineExceededException("Deadline passed while waiting for Ambit task:" + watch.taskId);
+        }
+        return new AmbitClientException("Timeout waiting for Ambit task:" + watch.taskId);
+    }
+
+    public int size() {
+        return watches.size();
+    }
+
+    /**
+     * Fails every watch and cancels their polls. Later watches fail at
+     * once.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (nextTick != null) {
+                nextTick.cancel();
+            }
+        }
+        for (Watch watch : watches.values()) {
+            watch.future.completeExceptionally(new AmbitClientException("Task watcher is closed"));
+            CompletableFuture<AmbitTask> poll = watch.poll;
+            if (poll != null) {
+                poll.cancel(true);
+            }
+        }
+        watches.clear();
+    }
+
+    /**
+     * Makes sure a tick runs no later than {@code at}.
+     */
+    private synchronized void schedule(long at) {
+        if (closed || at >= nextTickAt) {
+            return;
+        }
+        if (nextTick != null) {
+            nextTick.cancel();
+        }
+        nextTickAt = at;
+        nextTick = timer.newTimeout(t -> tick(), Math.max(0, at - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls the due watches, longest overdue first, and schedules the next
+     * tick for the earliest of the others, so an idle watcher does not wake
+     * up at all.
+     */
+    private void tick() {
+        synchronized (this) {
+            nextTick = null;
+            nextTickAt = Long.MAX_VALUE;
+        }
+        long now = System.currentTimeMillis();
+        long earliest = Long.MAX_VALUE;
+        try {
+            List<Watch> due = new ArrayList<>();
+            Iterator<Watch> it = watches.values().iterator();
+            while (it.hasNext()) {
+                Watch watch = it.next();
+                if (watch.future.isDone()) {
+                    it.remove();
+                } else if (watch.polling.get()) {
+                    continue;
+                } else if (now >= watch.nextPollAt) {
+                    due.add(watch);
+                } else {
+                    earliest = Math.min(earliest, watch.nextPollAt);
+                }
+            }
+            due.sort(Comparator.comparingLong((Watch w) -> w.nextPollAt));
+            backlog = new ConcurrentLinkedQueue<>(due);
+            drainBacklog();
+        } finally {
+            if (earliest != Long.MAX_VALUE) {
+                schedule(earliest);
+            }
+        }
+    }
+
+    /**
+     * Polls due watches, in order, while the in-flight limit allows. A poll
+     * that completes at once drains again from the loop that started it
+     * rather than recursing.
+     */
+    private void drainBacklog() {
+        if (draining.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (inFlight.tryAcquire()) {
+                Watch watch = backlog.poll();
+                if (watch == null) {
+                    inFlight.release();
+                    break;
+                }
+                if (watch.future.isDone() || !watch.polling.compareAndSet(false, true)) {
+                    inFlight.release();
+                    continue;
+                }
+                poll(watch);
+            }
+        } while (draining.decrementAndGet() != 0);
+    }
+
+    private void poll(Watch watch) {
+        watch.retryAfterMillis = -1;
+        CompletableFuture<AmbitTask> poll;
+        try {
+            poll = taskConsumer.getTask(watch.taskId, watch.subjectId, headers -> {
+                watch.retryAfterMillis = RetryAfter.millis(headers, System.currentTimeMillis());
+            });
+        } catch (RuntimeException ex) {
+            poll = new CompletableFuture<>();
+            poll.completeExceptionally(ex);
+        }
+        watch.poll = poll;
+        if (watch.future.isCancelled()) {
+            poll.cancel(true);
+        }
+        poll.whenComplete((task, ex) -> {
+            inFlight.release();
+            long now = System.currentTimeMillis();
+            Throwable failure = ex instanceof CompletionException ? ex.getCause() : ex;
+            boolean circuitOpen = failure instanceof CircuitOpenException;
+            boolean transientFailure = failure != null && !circuitOpen
+                    && (Failures.isTransient(failure) || Failures.isOverload(failure));
+            if (circuitOpen) {
+                watch.pause(now);
+            } else {
+                watch.resume(now);
+            }
+            if (circuitOpen) {
+                watch.nextPollAt = now + ((CircuitOpenException) failure).getRetryAfterMillis();
+            } else if (ex != null && !transientFailure) {
+                watch.future.completeExceptionally(failure);
+            } else if (ex == null && isFailed(task)) {
+                watch.future.completeExceptionally(taskFailure(task));
+            } else if (ex == null && !TaskResourceConsumer.isPending(task)) {
+                scheduler.record(task);
+                watch.future.complete(task);
+            } else if (now >= watch.deadline) {
+                watch.timedOut = true;
+                watch.future.completeExceptionally(new AmbitClientException("Timeout waiting for Ambit task:" + watch.taskId));
+            } else {
+                Throwable cause = Failures.unwrap(failure);
+                if (cause instanceof AmbitResponseException) {
+                    watch.retryAfterMillis = ((AmbitResponseException) cause).getRetryAfterMillis();
+                }
+                long delay = watch.retryAfterMillis >= 0
+                        ? watch.retryAfterMillis
+                        : scheduler.nextDelay(watch.name, watch.attempt++);
+                watch.nextPollAt = Math.min(now + delay, watch.deadline);
+            }
+            if (watch.future.isDone()) {
+                watches.remove(watch.key, watch);
+            }
+            watch.polling.set(false);
+            if (!watch.future.isDone()) {
+                schedule(watch.nextPollAt);
+            }
+            drainBacklog();
+        });
+    }
+
+    private static boolean isCompleted(AmbitTask task) {
+        return "Completed".equals(task.getStatus()) && task.getResult() != null;
+    }
+
+    private static boolean isFailed(AmbitTask task) {
+        return "Error".equals(task.getStatus()) || "Cancelled".equals(task.getStatus());
+    }
+
+    private static AmbitClientException taskFailure(AmbitTask task) {
+        StringBuilder message = new StringBuilder("Ambit task ").append(task.getId()).append(" failed");
+        if (task.getError() != null) {
+            message.append(": ").append(task.getError());
+        }
+        if (task.getErrorCause() != null) {
+            message.append(" (").append(task.getErrorCause()).append(")");
+        }
+        return new AmbitClientException(message.toString());
+    }
+
+    private static class Watch {
+
+        private final String key;
+        private final String taskId;
+        private final String name;
+        private final String subjectId;
+        private final CompletableFuture<AmbitTask> future = new CompletableFuture<>();
+        private final AtomicBoolean polling = new AtomicBoolean();
+        private volatile CompletableFuture<AmbitTask> poll;
+        private int callers = 1;
+        private volatile long deadline;
+        private volatile long nextPollAt;
+        private volatile long retryAfterMillis;
+        private volatile long pausedSince;
+        private volatile long pausedTotal;
+        private volatile boolean timedOut;
+        private int attempt;
+
+        Watch(String key, String taskId, String name, String subjectId, long deadline, long nextPollAt) {
+            this.key = key;
+            this.taskId = taskId;
+            this.name = name;
+            this.subjectId = subjectId;
+            this.deadline = deadline;
+            this.nextPollAt = nextPollAt;
+        }
+
+        /**
+         * Starts a pause for an open circuit, if one is not already running.
+         */
+        void pause(long now) {
+            if (pausedSince == 0) {
+                pausedSince = now;
+            }
+        }
+
+        /**
+         * Ends a pause, moving the deadline forward by its length.
+         */
+        void resume(long now) {
+            long since = pausedSince;
+            if (since != 0) {
+                pausedTotal += now - since;
+                deadline += now - since;
+                pausedSince = 0;
+            }
+        }
+
+        /**
+         * Returns how long the watch has been paused in total, including a
+         * pause still running.
+         */
+        long pausedMillis(long now) {
+            long since = pausedSince;
+            return pausedTotal + (since == 0 ? 0 : now - since);
+        }
+
+        /**
+         * Adds a caller, extending the deadline to the caller's, unless
+         * every earlier caller has cancelled.
+         */
+        synchronized boolean join(long deadline) {
+            if (callers == 0) {
+                return false;
+            }
+            callers++;
+            if (deadline > this.deadline) {
+                this.deadline = deadline;
+            }
+            return true;
+        }
+
+        /**
+         * Removes a caller that cancelled, and cancels the watch and its
+         * poll in flight if it was the last one. Returns whether it was.
+         */
+        boolean leave() {
+            synchronized (this) {
+                if (--callers > 0) {
+                    return false;
+                }
+                future.cancel(true);
+            }
+            CompletableFuture<AmbitTask> inFlight = poll;
+            if (inFlight != null) {
+                inFlight.cancel(true);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads a list of byte buffers back to back without copying them into a
+ * single array. Reading advances the buffers' positions.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class CompositeInputStream extends InputStream {
+
+    private final List<ByteBuffer> buffers;
+    private int index;
+
+    public CompositeInputStream(List<ByteBuffer> buffers) {
+        this.buffers = buffers;
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer current = current();
+        return current == null ? -1 : current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        ByteBuffer current;
+        while (read < len && (current = current()) != null) {
+            int n = Math.min(len - read, current.remaining());
+            current.get(b, off + read, n);
+            read += n;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        ByteBuffer current;
+        while (skipped < n && (current = current()) != null) {
+            int step = (int) Math.min(n - skipped, current.remaining());
+            current.position(current.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long available = 0;
+        for (int i = index; i < buffers.size(); i++) {
+            available += buffers.get(i).remaining();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, available);
+    }
+
+    private ByteBuffer current() {
+        while (index < buffers.size()) {
+            ByteBuffer buffer = buffers.get(index);
+            if (buffer.hasRemaining()) {
+                return buffer;
+            }
+            index++;
+        }
+        return null;
+    }
+}
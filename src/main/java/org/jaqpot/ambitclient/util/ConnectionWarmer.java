@@ -0,0 +1,101 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.util;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.asynchttpclient.AsyncHttpClient;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+
+/**
+ * Primes an HTTP client for an Ambit server before the first real calls:
+ * resolves the host so that the address is cached, then fills the
+ * connection pool with keep-alive connections.
+ *
+ * A single connection is opened first, so that over TLS the others can
+ * resume its session instead of each doing a full handshake. The others
+ * are then opened by as many concurrent requests as connections wanted,
+ * one of which reuses the first connection.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ConnectionWarmer {
+
+    private final AsyncHttpClient httpClient;
+    private final String basePath;
+
+    public ConnectionWarmer(AsyncHttpClient httpClient, String basePath) {
+        this.httpClient = httpClient;
+        this.basePath = basePath;
+    }
+
+    /**
+     * Opens up to {@code connections} connections and completes with the
+     * number opened, or fails if the host cannot be resolved or no
+     * connection could be opened.
+     */
+    public CompletableFuture<Integer> warmUp(int connections) {
+        String host = URI.create(basePath).getHost();
+        return CompletableFuture.supplyAsync(() -> resolve(host))
+                .thenCompose((addresses) -> open(1))
+                .thenCompose((first) -> connections > 1 ? open(connections) : CompletableFuture.completedFuture(first))
+                .thenApply((opened) -> {
+                    if (opened == 0) {
+                        throw new AmbitClientException("Could not open any connection to " + basePath);
+                    }
+                    return opened;
+                });
+    }
+
+    private CompletableFuture<Integer> open(int connections) {
+        List<CompletableFuture<Integer>> opened = new ArrayList<>(Math.max(0, connections));
+        for (int i = 0; i < connections; i++) {
+            opened.add(httpClient.prepareHead(basePath)
+                    .execute()
+                    .toCompletableFuture()
+                    .handle((response, ex) -> ex == null ? 1 : 0));
+        }
+        return CompletableFuture.allOf(opened.toArray(new CompletableFuture<?>[0]))
+                .thenApply((v) -> opened.stream().mapToInt(CompletableFuture::join).sum());
+    }
+
+    private static InetAddress[] resolve(String host) {
+        try {
+            return InetAddress.getAllByName(host);
+        } catch (UnknownHostException ex) {
+            throw new AmbitClientException("Cannot resolve Ambit host " + host, ex);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.util;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Composes futures so that cancelling the result also cancels the stages
+ * it was built from.
+ *
+ * {@link CompletableFuture#thenApply} and {@link CompletableFuture#thenCompose}
+ * return futures whose cancellation does not reach the stage they depend
+ * on, so a caller that gives up on a workflow would leave its requests and
+ * task polls running. These variants pass the cancellation upstream, down
+ * to the HTTP request in flight.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Cancels {@code upstream} when {@code dependent} is cancelled, and
+     * returns {@code dependent}.
+     */
+    public static <T> CompletableFuture<T> propagateCancel(CompletableFuture<T> dependent, Future<?> upstream) {
+        dependent.whenComplete((value, ex) -> {
+            if (dependent.isCancelled()) {
+                upstream.cancel(true);
+            }
+        });
+        return dependent;
+    }
+
+    public static <T, U> CompletableFuture<U> thenApply(CompletableFuture<T> source, Function<? super T, ? extends U> fn) {
+        return propagateCancel(source.thenApply(fn), source);
+    }
+
+    public static <T> CompletableFuture<T> whenComplete(CompletableFuture<T> source, BiConsumer<? super T, ? super Throwable> action) {
+        return propagateCancel(source.whenComplete(action), source);
+    }
+
+    /**
+     * Like {@link CompletableFuture#thenCompose}, except that cancelling the
+     * result cancels the source, or the future returned by {@code fn} once
+     * it has been called. {@code fn} is not called if the result was
+     * cancelled first.
+     */
+    public static <T, U> CompletableFuture<U> thenCompose(CompletableFuture<T> source, Function<? super T, ? extends CompletableFuture<U>> fn) {
+        CompletableFuture<U> result = new CompletableFuture<>();
+        propagateCancel(result, source);
+        source.whenComplete((value, ex) -> {
+            if (ex != null) {
+                result.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            CompletableFuture<U> next;
+            try {
+                next = fn.apply(value);
+            } catch (RuntimeException fnEx) {
+                result.completeExceptionally(fnEx);
+                return;
+            }
+            propagateCancel(result, next);
+            next.whenComplete((nextValue, nextEx) -> {
+                if (nextEx != null) {
+                    result.completeExceptionally(nextEx instanceof CompletionException ? nextEx.getCause() : nextEx);
+                } else {
+                    result.complete(nextValue);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Like {@link CompletableFuture#allOf}, except that cancelling the
+     * result cancels every one of the futures. They are cancelled last
+     * first, so that requests still waiting for a slot are dropped before
+     * the cancelled requests in flight free their slots.
+     */
+    public static CompletableFuture<Void> allOf(List<? extends CompletableFuture<?>> futures) {
+        CompletableFuture<?>[] all = futures.toArray(new CompletableFuture<?>[futures.size()]);
+        CompletableFuture<Void> result = CompletableFuture.allOf(all);
+        result.whenComplete((value, ex) -> {
+            if (result.isCancelled()) {
+                for (int i = all.length - 1; i >= 0; i--) {
+                    all[i].cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+}
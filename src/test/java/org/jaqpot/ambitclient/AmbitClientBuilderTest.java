@@ -0,0 +1,163 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.AsyncHttpClientConfig;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.policy.RetryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class AmbitClientBuilderTest {
+
+    private static final String DATASET = "{\"datasetURI\":\"http://ambit.local/ambit/dataset/1\",\"features\":[],\"dataEntry\":[]}";
+
+    private LocalAmbit ambit;
+
+    @Before
+    public void setUp() throws Exception {
+        ambit = new LocalAmbit();
+    }
+
+    @After
+    public void tearDown() {
+        ambit.close();
+    }
+
+    private AmbitClientBuilder builder() {
+        return new AmbitClientBuilder()
+                .setBasePath(ambit.getBasePath())
+                .setSerializer(new JacksonSerializer(new ObjectMapper()));
+    }
+
+    @Test(expected = AmbitClientException.class)
+    public void testRequiresABasePath() {
+        new AmbitClientBuilder().setSerializer(new JacksonSerializer(new ObjectMapper())).build();
+    }
+
+    @Test(expected = AmbitClientException.class)
+    public void testRequiresASerializer() {
+        new AmbitClientBuilder().setBasePath(ambit.getBasePath()).build();
+    }
+
+    @Test
+    public void testAppliesTheConnectionSettings() {
+        FakeTimer timer = new FakeTimer();
+        AsyncHttpClientConfig config = builder()
+                .setMaxConnections(10)
+                .setMaxConnectionsPerHost(5)
+                .setPooledConnectionIdleTimeout(500)
+                .setConnectTimeout(1000)
+                .setReadTimeout(2000)
+                .setRequestTimeout(3000)
+                .setKeepAlive(false)
+                .createConfig(timer);
+        assertSame(timer, config.getNettyTimer());
+        assertEquals(10, config.getMaxConnections());
+        assertEquals(5, config.getMaxConnectionsPerHost());
+        assertEquals(500, config.getPooledConnectionIdleTimeout());
+        assertEquals(1000, config.getConnectTimeout());
+        assertEquals(2000, config.getReadTimeout());
+        assertEquals(3000, config.getRequestTimeout());
+        assertFalse(config.isKeepAlive());
+    }
+
+    @Test
+    public void testBorrowedEventLoopsDecideTheTransport() {
+        NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try {
+            AsyncHttpClientConfig config = builder()
+                    .setUseNativeTransport(true)
+                    .setEventLoopGroup(eventLoopGroup)
+                    .createConfig(new FakeTimer());
+            assertSame(eventLoopGroup, config.getEventLoopGroup());
+            assertFalse(config.isUseNativeTransport());
+        } finally {
+            eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testBuildsAWorkingClient() throws Exception {
+        ambit.route("/ambit/dataset/1", DATASET);
+        try (AmbitClient client = builder().build()) {
+            assertEquals("http://ambit.local/ambit/dataset/1", client.getDataset("1", "s").get().getDatasetURI());
+            client.whenReady().get();
+        }
+    }
+
+    @Test
+    public void testLeavesABorrowedHttpClientOpen() throws Exception {
+        ambit.route("/ambit/dataset/1", DATASET);
+        AsyncHttpClient httpClient = new DefaultAsyncHttpClient();
+        try {
+            AmbitClient client = builder().setHttpClient(httpClient).build();
+            client.getDataset("1", "s").get();
+            client.close();
+            assertFalse(httpClient.isClosed());
+        } finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testWarmsUpConnections() throws Exception {
+        try (AmbitClient client = builder().setWarmUpConnections(3).build()) {
+            client.whenReady().get(10, TimeUnit.SECONDS);
+            assertEquals(4, ambit.count("HEAD /ambit"));
+        }
+    }
+
+    @Test
+    public void testSendsRequestsThroughTheConfiguredRetryPolicy() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        ambit.route("/ambit/dataset/1", (exchange) -> sent.incrementAndGet() == 1
+                ? LocalAmbit.Response.status(503)
+                : LocalAmbit.Response.json(DATASET));
+        try (AmbitClient client = builder()
+                .setRetryPolicy(new RetryPolicy.Builder().setBaseDelay(1, TimeUnit.MILLISECONDS))
+                .build()) {
+            client.getDataset("1", "s").get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, sent.get());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.jaqpot.ambitclient.consumer.DatasetResourceConsumer;
+import org.jaqpot.ambitclient.consumer.TaskResourceConsumer;
+import org.jaqpot.ambitclient.exception.DeadlineExceededException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class AmbitClientImplTest {
+
+    private LocalAmbit ambit;
+    private CountDownLatch released;
+
+    @Before
+    public void setUp() throws Exception {
+        ambit = new LocalAmbit();
+        released = new CountDownLatch(1);
+        ambit.route("/ambit/dataset/1", (exchange) -> {
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return LocalAmbit.Response.json("{}");
+        });
+    }
+
+    @After
+    public void tearDown() {
+        released.countDown();
+        ambit.close();
+    }
+
+    @Test
+    public void testEnforcesDeadlinesWithoutAGivenTimer() throws Exception {
+        JacksonSerializer serializer = new JacksonSerializer(new ObjectMapper());
+        DefaultAsyncHttpClient httpClient = new DefaultAsyncHttpClient();
+        String basePath = ambit.getBasePath();
+        try (AmbitClient client = new AmbitClientImpl(new DatasetResourceConsumer(serializer, httpClient, basePath),
+                new TaskResourceConsumer(serializer, httpClient, basePath, null), null, null, null, null, httpClient)) {
+            client.getDataset("1", "s", Deadline.after(100, TimeUnit.MILLISECONDS)).get(5, TimeUnit.SECONDS);
+            fail("The deadline passed");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof DeadlineExceededException);
+        }
+    }
+}
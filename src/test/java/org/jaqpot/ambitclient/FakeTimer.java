@@ -0,0 +1,168 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Timer} driven by hand. Timeouts only fire when the test
+ * advances the timer's clock past them, in the calling thread and in the
+ * order of their deadlines.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class FakeTimer implements Timer {
+
+    private final PriorityQueue<FakeTimeout> timeouts = new PriorityQueue<>(
+            Comparator.comparingLong((FakeTimeout t) -> t.deadline).thenComparingLong(t -> t.sequence));
+    private long nowNanos;
+    private long sequence;
+
+    @Override
+    public synchronized Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        FakeTimeout timeout = new FakeTimeout(task, nowNanos + Math.max(0, unit.toNanos(delay)), sequence++);
+        timeouts.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public synchronized Set<Timeout> stop() {
+        Set<Timeout> pending = new HashSet<>(timeouts);
+        timeouts.clear();
+        return pending;
+    }
+
+    /**
+     * Moves the clock forward and runs every timeout that is due, including
+     * the ones scheduled by the timeouts run.
+     */
+    public void advance(long delay, TimeUnit unit) {
+        long until;
+        synchronized (this) {
+            until = nowNanos + unit.toNanos(delay);
+        }
+        while (true) {
+            FakeTimeout next;
+            synchronized (this) {
+                next = timeouts.peek();
+                if (next == null || next.deadline > until) {
+                    nowNanos = until;
+                    return;
+                }
+                timeouts.poll();
+                nowNanos = next.deadline;
+            }
+            next.run();
+        }
+    }
+
+    /**
+     * Returns the delays, from now, of the timeouts still pending.
+     */
+    public synchronized List<Long> pendingMillis() {
+        List<Long> delays = new ArrayList<>();
+        for (FakeTimeout timeout : timeouts) {
+            if (!timeout.isCancelled()) {
+                delays.add(TimeUnit.NANOSECONDS.toMillis(timeout.deadline - nowNanos));
+            }
+        }
+        delays.sort(null);
+        return delays;
+    }
+
+    private final class FakeTimeout implements Timeout {
+
+        private final TimerTask task;
+        private final long deadline;
+        private final long sequence;
+        private volatile boolean cancelled;
+        private volatile boolean expired;
+
+        FakeTimeout(TimerTask task, long deadline, long sequence) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        void run() {
+            if (cancelled) {
+                return;
+            }
+            expired = true;
+            try {
+                task.run(this);
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public Timer timer() {
+            return FakeTimer.this;
+        }
+
+        @Override
+        public TimerTask task() {
+            return task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return expired;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean cancel() {
+            synchronized (FakeTimer.this) {
+                if (expired || cancelled) {
+                    return false;
+                }
+                cancelled = true;
+                timeouts.remove(this);
+                return true;
+            }
+        }
+    }
+}
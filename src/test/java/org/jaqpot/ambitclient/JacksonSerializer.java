@@ -29,27 +29,39 @@
  */
 package org.jaqpot.ambitclient;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.fasterxml.jackson.module.jaxb.JaxbAnnotationIntrospector;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
-import org.jaqpot.ambitclient.serialize.Serializer;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import org.jaqpot.ambitclient.serialize.IncrementalParser;
+import org.jaqpot.ambitclient.serialize.IncrementalSerializer;
 
 /**
+ * A serializer backed by Jackson. Responses are decoded with Jackson's
+ * non-blocking parser as their parts are fed, and the elements of a
+ * streamed array field are bound one at a time from the tokens buffered
+ * for them alone.
+ *
  * @author Angelos Valsamis
  * @author Charalampos Chomenidis
  */
-public class JacksonSerializer implements Serializer {
+public class JacksonSerializer implements IncrementalSerializer {
 
     private final ObjectMapper objectMapper;
 
     public JacksonSerializer(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
         this.objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-        this.objectMapper.setAnnotationIntrospector(new JaxbAnnotationIntrospector());
+        this.objectMapper.setAnnotationIntrospector(new JaxbAnnotationIntrospector(objectMapper.getTypeFactory()));
     }
 
     @Override
@@ -97,4 +109,121 @@ public class JacksonSerializer implements Serializer {
         }
     }
 
+    @Override
+    public <T> IncrementalParser<T> newParser(Class<T> valueType) {
+        return new JacksonParser<>(valueType, null, null, null);
+    }
+
+    @Override
+    public <T, E> IncrementalParser<T> newParser(Class<T> valueType, String elementField, Class<E> elementType, Consumer<? super E> elementConsumer) {
+        return new JacksonParser<>(valueType, elementField, elementType, elementConsumer);
+    }
+
+    /**
+     * Feeds the parts to a non-blocking parser and copies its tokens into
+     * a buffer for the value, except for the elements of
+     * {@code elementField} in the top-level object, which each get a buffer
+     * of their own that is bound and handed on as soon as it is complete.
+     */
+    private class JacksonParser<T, E> implements IncrementalParser<T> {
+
+        private final Class<T> valueType;
+        private final String elementField;
+        private final Class<E> elementType;
+        private final Consumer<? super E> elementConsumer;
+
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private final TokenBuffer value;
+        private TokenBuffer element;
+        private int depth;
+        private int elementDepth;
+        private boolean atElementField;
+        private boolean inElements;
+
+        JacksonParser(Class<T> valueType, String elementField, Class<E> elementType, Consumer<? super E> elementConsumer) {
+            this.valueType = valueType;
+            this.elementField = elementField;
+            this.elementType = elementType;
+            this.elementConsumer = elementConsumer;
+            try {
+                this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+            this.value = new TokenBuffer(parser);
+        }
+
+        @Override
+        public void feed(ByteBuffer chunk) {
+            byte[] bytes;
+            int offset;
+            int length = chunk.remaining();
+            if (chunk.hasArray()) {
+                bytes = chunk.array();
+                offset = chunk.arrayOffset() + chunk.position();
+            } else {
+                bytes = new byte[length];
+                offset = 0;
+                chunk.duplicate().get(bytes);
+            }
+            try {
+                feeder.feedInput(bytes, offset, offset + length);
+                readTokens();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @Override
+        public T complete() {
+            try {
+                feeder.endOfInput();
+                readTokens();
+                return objectMapper.readValue(value.asParser(objectMapper), valueType);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        private void readTokens() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                if (inElements) {
+                    readElementToken(token);
+                } else if (elementField != null && depth == 1 && token == JsonToken.FIELD_NAME
+                        && elementField.equals(parser.getCurrentName())) {
+                    atElementField = true;
+                } else if (atElementField && token == JsonToken.START_ARRAY) {
+                    atElementField = false;
+                    inElements = true;
+                } else {
+                    if (atElementField) {
+                        atElementField = false;
+                        value.writeFieldName(elementField);
+                    }
+                    value.copyCurrentEvent(parser);
+                    depth += token.isStructStart() ? 1 : token.isStructEnd() ? -1 : 0;
+                }
+            }
+        }
+
+        private void readElementToken(JsonToken token) throws IOException {
+            if (element == null) {
+                if (token == JsonToken.END_ARRAY) {
+                    inElements = false;
+                    return;
+                }
+                element = new TokenBuffer(parser);
+            }
+            element.copyCurrentEvent(parser);
+            elementDepth += token.isStructStart() ? 1 : token.isStructEnd() ? -1 : 0;
+            if (elementDepth == 0) {
+                E next = objectMapper.readValue(element.asParser(objectMapper), elementType);
+                element = null;
+                elementConsumer.accept(next);
+            }
+        }
+    }
 }
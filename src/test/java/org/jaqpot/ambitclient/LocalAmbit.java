@@ -0,0 +1,153 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * A local HTTP server standing in for Ambit. Requests are answered by the
+ * first route whose pattern matches their path and query, and unmatched
+ * requests get a {@code 404}. Every request is recorded.
+ *
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class LocalAmbit implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Function<HttpExchange, Response>> routes = new LinkedHashMap<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    public LocalAmbit() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Returns the base path of the Ambit service.
+     */
+    public String getBasePath() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/ambit";
+    }
+
+    /**
+     * Answers requests whose path and query match {@code pattern}, unless
+     * a route added earlier matches them too.
+     */
+    public synchronized void route(String pattern, Function<HttpExchange, Response> handler) {
+        routes.put(pattern, handler);
+    }
+
+    public void route(String pattern, String json) {
+        route(pattern, (exchange) -> Response.json(json));
+    }
+
+    /**
+     * Returns the method, path and query of every request received so far.
+     */
+    public List<String> getRequests() {
+        return requests;
+    }
+
+    public int count(String pattern) {
+        return (int) requests.stream().filter((request) -> request.matches(pattern)).count();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String uri = exchange.getRequestURI().toString();
+        requests.add(exchange.getRequestMethod() + " " + uri);
+        List<Map.Entry<String, Function<HttpExchange, Response>>> routes;
+        synchronized (this) {
+            routes = new ArrayList<>(this.routes.entrySet());
+        }
+        Response response = Response.status(404);
+        for (Map.Entry<String, Function<HttpExchange, Response>> route : routes) {
+            if (uri.matches(route.getKey())) {
+                response = route.getValue().apply(exchange);
+                break;
+            }
+        }
+        byte[] body = response.body == null ? null : response.body.getBytes(StandardCharsets.UTF_8);
+        if (body != null) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+        }
+        exchange.sendResponseHeaders(response.status, body == null ? -1 : body.length);
+        if (body != null) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            } catch (IOException ex) {
+                // the client went away
+            }
+        }
+        exchange.close();
+    }
+
+    public static final class Response {
+
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public static Response json(String body) {
+            return new Response(200, body);
+        }
+
+        public static Response status(int status) {
+            return new Response(status, null);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class DiskCacheTest {
+
+    private static final String PATH = "http://ambit.local/ambit/dataset/1";
+    private static final String OTHER_PATH = "http://ambit.local/ambit/dataset/2";
+    private static final long HOUR = 3600 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<ByteBuffer> body(String text) {
+        return Collections.singletonList(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String text(DiskCache.Entry entry) {
+        ByteBuffer body = entry.getBody().duplicate();
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void put(DiskCache diskCache, CacheKey key, String text) {
+        long expiresAt = System.currentTimeMillis() + HOUR;
+        diskCache.put(key, body(text), expiresAt, expiresAt, "\"v1\"", null);
+    }
+
+    /**
+     * Closes the cache and reopens it without its index, so that it is
+     * rebuilt by scanning the segments.
+     */
+    private DiskCache rescan(DiskCache diskCache, Path directory) throws Exception {
+        diskCache.close();
+        Files.delete(directory.resolve("index.dat"));
+        return new DiskCache(directory, 16 * 1024 * 1024);
+    }
+
+    @Test
+    public void testKeepsResponsesAcrossReopening() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        DiskCache diskCache = new DiskCache(directory, 16 * 1024 * 1024);
+        CacheKey key = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        put(diskCache, key, "dataset");
+
+        diskCache = rescan(diskCache, directory);
+        DiskCache.Entry entry = diskCache.get(key);
+        assertEquals("dataset", text(entry));
+        assertEquals("\"v1\"", entry.getEtag());
+        assertNull(diskCache.get(CacheKey.of(ResourceType.DATASET, PATH, "other")));
+        diskCache.close();
+    }
+
+    @Test
+    public void testRemovedResponsesStayRemovedAfterARescan() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        DiskCache diskCache = new DiskCache(directory, 16 * 1024 * 1024);
+        CacheKey key = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        CacheKey other = CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s");
+        put(diskCache, key, "dataset");
+        put(diskCache, other, "other");
+        diskCache.remove(key);
+        assertNull(diskCache.get(key));
+
+        diskCache = rescan(diskCache, directory);
+        assertNull(diskCache.get(key));
+        assertEquals("other", text(diskCache.get(other)));
+        diskCache.close();
+    }
+
+    @Test
+    public void testRemovingAResourceDropsEveryIdentity() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        DiskCache diskCache = new DiskCache(directory, 16 * 1024 * 1024);
+        CacheKey first = CacheKey.of(ResourceType.DATASET, PATH, "s1");
+        CacheKey second = CacheKey.of(ResourceType.DATASET, PATH, "s2");
+        CacheKey other = CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s1");
+        put(diskCache, first, "first");
+        put(diskCache, second, "second");
+        put(diskCache, other, "other");
+        diskCache.removeAll(ResourceType.DATASET, PATH);
+
+        diskCache = rescan(diskCache, directory);
+        assertNull(diskCache.get(first));
+        assertNull(diskCache.get(second));
+        assertEquals("other", text(diskCache.get(other)));
+        diskCache.close();
+    }
+
+    @Test
+    public void testPutsAfterAClearAreKept() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        DiskCache diskCache = new DiskCache(directory, 16 * 1024 * 1024);
+        CacheKey key = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        CacheKey other = CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s");
+        put(diskCache, key, "old");
+        diskCache.clear();
+        put(diskCache, other, "new");
+
+        diskCache = rescan(diskCache, directory);
+        assertNull(diskCache.get(key));
+        assertEquals("new", text(diskCache.get(other)));
+        diskCache.close();
+    }
+
+    @Test
+    public void testWritesAfterCloseAreDropped() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        DiskCache diskCache = new DiskCache(directory, 16 * 1024 * 1024);
+        CacheKey key = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        put(diskCache, key, "dataset");
+        diskCache.close();
+
+        put(diskCache, CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s"), "late");
+        diskCache.remove(key);
+        diskCache.clear();
+
+        diskCache = new DiskCache(directory, 16 * 1024 * 1024);
+        assertEquals("dataset", text(diskCache.get(key)));
+        assertNull(diskCache.get(CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s")));
+        diskCache.close();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.cache;
+
+import java.util.concurrent.TimeUnit;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ResponseCacheTest {
+
+    private static final String PATH = "http://ambit.local/ambit/dataset/1";
+    private static final String OTHER_PATH = "http://ambit.local/ambit/dataset/2";
+
+    private static ResponseCache.Builder builder() {
+        return new ResponseCache.Builder().setConcurrencyLevel(1).setTtl(1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void testStoresAndReturnsFreshResponses() {
+        ResponseCache cache = builder().build();
+        CacheKey key = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        cache.put(key, "dataset", 10);
+        assertEquals("dataset", cache.get(key, String.class));
+        assertNull(cache.get(key, Integer.class));
+        assertNull(cache.get(CacheKey.of(ResourceType.DATASET, PATH, "other"), String.class));
+    }
+
+    @Test
+    public void testTasksAreNotCached() {
+        ResponseCache cache = builder().build();
+        CacheKey key = CacheKey.of(ResourceType.TASK, PATH, "s");
+        cache.put(key, "task", 10);
+        assertNull(cache.get(key, String.class));
+    }
+
+    @Test
+    public void testInvalidationDropsEveryIdentity() {
+        ResponseCache cache = builder().build();
+        CacheKey first = CacheKey.of(ResourceType.DATASET, PATH, "s1");
+        CacheKey second = CacheKey.of(ResourceType.DATASET, PATH, "s2");
+        CacheKey other = CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s1");
+        cache.put(first, "first", 10);
+        cache.put(second, "second", 10);
+        cache.put(other, "other", 10);
+
+        cache.invalidate(ResourceType.DATASET, PATH);
+        assertNull(cache.get(first, String.class));
+        assertNull(cache.get(second, String.class));
+        assertEquals("other", cache.get(other, String.class));
+    }
+
+    @Test
+    public void testResponseFetchedBeforeAnInvalidationIsDropped() {
+        ResponseCache cache = builder().build();
+        CacheKey key = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        long generation = cache.generation(key);
+        cache.invalidate(ResourceType.DATASET, PATH);
+        cache.put(key, generation, "stale", 10, null, null, null);
+        assertNull(cache.get(key, String.class));
+
+        cache.put(key, cache.generation(key), "fresh", 10, null, null, null);
+        assertEquals("fresh", cache.get(key, String.class));
+    }
+
+    @Test
+    public void testInvalidatingOneResourceKeepsFetchesOfOthers() {
+        ResponseCache cache = builder().build();
+        CacheKey key = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        CacheKey other = CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s");
+        long generation = cache.generation(key);
+        cache.invalidate(other);
+        cache.put(key, generation, "dataset", 10, null, null, null);
+        assertEquals("dataset", cache.get(key, String.class));
+    }
+
+    @Test
+    public void testInvalidateAllDropsEarlierFetches() {
+        ResponseCache cache = builder().build();
+        CacheKey key = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        CacheKey other = CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s");
+        cache.put(other, "other", 10);
+        long generation = cache.generation(key);
+        cache.invalidateAll();
+        cache.put(key, generation, "stale", 10, null, null, null);
+        assertNull(cache.get(key, String.class));
+        assertNull(cache.get(other, String.class));
+        assertEquals(0, cache.getStats().getWeight());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedOverTheBudget() {
+        ResponseCache cache = builder().setMaxWeight(100).build();
+        CacheKey first = CacheKey.of(ResourceType.DATASET, PATH, "s");
+        CacheKey second = CacheKey.of(ResourceType.DATASET, OTHER_PATH, "s");
+        CacheKey third = CacheKey.of(ResourceType.DATASET_STRUCTURES, PATH, "s");
+        cache.put(first, "first", 40);
+        cache.put(second, "second", 40);
+        assertEquals("first", cache.get(first, String.class));
+        cache.put(third, "third", 40);
+
+        assertEquals("first", cache.get(first, String.class));
+        assertNull(cache.get(second, String.class));
+        assertEquals("third", cache.get(third, String.class));
+        assertEquals(80, cache.getStats().getWeight());
+        assertEquals(1, cache.getStats().getEvictions());
+
+        cache.put(CacheKey.of(ResourceType.DATASET_STRUCTURES, OTHER_PATH, "s"), "huge", 101);
+        assertEquals(80, cache.getStats().getWeight());
+    }
+}
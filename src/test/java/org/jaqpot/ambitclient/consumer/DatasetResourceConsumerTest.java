@@ -0,0 +1,297 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.jaqpot.ambitclient.Deadline;
+import org.jaqpot.ambitclient.JacksonSerializer;
+import org.jaqpot.ambitclient.LocalAmbit;
+import org.jaqpot.ambitclient.cache.ResponseCache;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.jaqpot.ambitclient.exception.DeadlineExceededException;
+import org.jaqpot.ambitclient.exception.ResourceNotFoundException;
+import org.jaqpot.ambitclient.model.dataset.ColumnarDataset;
+import org.jaqpot.ambitclient.model.dataset.DataEntry;
+import org.jaqpot.ambitclient.model.dataset.Dataset;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class DatasetResourceConsumerTest {
+
+    private static final Pattern PAGE = Pattern.compile(".*\\?page=(\\d+)&pagesize=(\\d+)");
+
+    private LocalAmbit ambit;
+    private AsyncHttpClient httpClient;
+    private JacksonSerializer serializer;
+    private DatasetResourceConsumer datasetConsumer;
+
+    @Before
+    public void setUp() throws Exception {
+        ambit = new LocalAmbit();
+        httpClient = new DefaultAsyncHttpClient();
+        serializer = new JacksonSerializer(new ObjectMapper());
+        datasetConsumer = new DatasetResourceConsumer(serializer, httpClient, ambit.getBasePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.close();
+        ambit.close();
+    }
+
+    /**
+     * Returns rows {@code from} to {@code to} of a dataset with
+     * {@code totalRows} rows.
+     */
+    private static String dataset(int totalRows, int from, int to) {
+        StringBuilder json = new StringBuilder("{\"datasetURI\":\"http://ambit.local/ambit/dataset/1\",\"totalRows\":")
+                .append(totalRows)
+                .append(",\"features\":[{\"uri\":\"f1\",\"name\":\"a\"},{\"uri\":\"f2\",\"name\":\"b\"}],\"dataEntry\":[");
+        for (int i = from; i < Math.min(to, totalRows); i++) {
+            if (i > from) {
+                json.append(',');
+            }
+            json.append("{\"compound\":{\"URI\":\"c").append(i).append("\"},\"values\":{\"f1\":")
+                    .append(i).append(".5,\"f2\":\"s").append(i).append("\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private void routePages(int totalRows) {
+        ambit.route("/ambit/dataset/1\\?.*", (exchange) -> {
+            Matcher m = PAGE.matcher(exchange.getRequestURI().toString());
+            m.matches();
+            int page = Integer.parseInt(m.group(1));
+            int pageSize = Integer.parseInt(m.group(2));
+            return LocalAmbit.Response.json(dataset(totalRows, page * pageSize, (page + 1) * pageSize));
+        });
+    }
+
+    private static List<String> compounds(List<DataEntry> rows) {
+        List<String> compounds = new ArrayList<>();
+        for (DataEntry row : rows) {
+            compounds.add(row.getCompound().getURI());
+        }
+        return compounds;
+    }
+
+    @Test
+    public void testGetsADataset() throws Exception {
+        ambit.route("/ambit/dataset/1", dataset(3, 0, 3));
+        Dataset dataset = datasetConsumer.getDatasetById("1", "s").get();
+        assertEquals(Arrays.asList("c0", "c1", "c2"), compounds(dataset.getDataEntry()));
+        assertEquals(2, dataset.getFeatures().size());
+    }
+
+    @Test
+    public void testMissingDatasetFailsWithNotFound() throws Exception {
+        try {
+            datasetConsumer.getDatasetById("2", "s").get();
+            fail("There is no such dataset");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ResourceNotFoundException);
+        }
+    }
+
+    @Test
+    public void testMergesPagesInOrder() throws Exception {
+        routePages(25);
+        Dataset dataset = datasetConsumer.getDatasetById("1", "s", 10, 2).get();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            expected.add("c" + i);
+        }
+        assertEquals(expected, compounds(dataset.getDataEntry()));
+        assertEquals(Integer.valueOf(25), dataset.getTotalRows());
+        assertEquals(3, ambit.getRequests().size());
+        assertEquals(1, ambit.count("GET /ambit/dataset/1\\?page=2&pagesize=10"));
+    }
+
+    @Test
+    public void testHoldsBackPagesThatArriveEarly() throws Exception {
+        CountDownLatch secondPageSent = new CountDownLatch(1);
+        ambit.route("/ambit/dataset/1\\?.*", (exchange) -> {
+            Matcher m = PAGE.matcher(exchange.getRequestURI().toString());
+            m.matches();
+            int page = Integer.parseInt(m.group(1));
+            if (page == 1) {
+                try {
+                    secondPageSent.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String body = dataset(6, page * 2, page * 2 + 2);
+            if (page == 2) {
+                secondPageSent.countDown();
+            }
+            return LocalAmbit.Response.json(body);
+        });
+        List<String> streamed = new ArrayList<>();
+        Dataset header = datasetConsumer.streamDataset("1", "s", 2, 2, (row) -> {
+            synchronized (streamed) {
+                streamed.add(row.getCompound().getURI());
+            }
+        }).get();
+        assertNull(header.getDataEntry());
+        assertEquals(Arrays.asList("c0", "c1", "c2", "c3", "c4", "c5"), streamed);
+    }
+
+    @Test
+    public void testStopsAtTheFirstShortPageWithoutATotal() throws Exception {
+        ambit.route("/ambit/dataset/1\\?.*", (exchange) -> {
+            Matcher m = PAGE.matcher(exchange.getRequestURI().toString());
+            m.matches();
+            int page = Integer.parseInt(m.group(1));
+            return LocalAmbit.Response.json(dataset(7, page * 3, page * 3 + 3).replace("\"totalRows\":7,", ""));
+        });
+        Dataset dataset = datasetConsumer.getDatasetById("1", "s", 3, 1).get();
+        assertEquals(7, dataset.getDataEntry().size());
+        assertEquals(3, ambit.getRequests().size());
+    }
+
+    @Test
+    public void testFailsAtTheFirstFailedPage() throws Exception {
+        ambit.route("/ambit/dataset/1\\?page=1&.*", (exchange) -> LocalAmbit.Response.status(500));
+        routePages(40);
+        List<String> streamed = new ArrayList<>();
+        try {
+            datasetConsumer.streamDataset("1", "s", 2, 2, (row) -> {
+                synchronized (streamed) {
+                    streamed.add(row.getCompound().getURI());
+                }
+            }).get(10, TimeUnit.SECONDS);
+            fail("Page 1 failed");
+        } catch (ExecutionException ex) {
+            assertEquals(500, ((AmbitResponseException) ex.getCause()).getStatusCode());
+        }
+        assertEquals(Arrays.asList("c0", "c1"), streamed);
+        assertTrue(ambit.getRequests().size() < 20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyPages() {
+        datasetConsumer.getDatasetById("1", "s", 0, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNoParallelism() {
+        datasetConsumer.getDatasetById("1", "s", 10, 0);
+    }
+
+    @Test
+    public void testStreamsRowsInOrder() throws Exception {
+        ambit.route("/ambit/dataset/1", dataset(1000, 0, 1000));
+        List<String> streamed = new ArrayList<>();
+        Dataset header = datasetConsumer.streamDataset("1", "s", (row) -> streamed.add(row.getCompound().getURI())).get();
+        assertEquals(1000, streamed.size());
+        assertEquals("c0", streamed.get(0));
+        assertEquals("c999", streamed.get(999));
+        assertNull(header.getDataEntry());
+        assertEquals(2, header.getFeatures().size());
+    }
+
+    @Test
+    public void testStreamsRowsOnTheGivenExecutor() throws Exception {
+        ambit.route("/ambit/dataset/1", dataset(100, 0, 100));
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        Executor executor = (task) -> new Thread(task, "rows").start();
+        datasetConsumer.streamDataset("1", "s", (row) -> threads.add(Thread.currentThread().getName()), executor, null).get();
+        assertEquals(100, threads.size());
+        assertTrue(threads.stream().allMatch("rows"::equals));
+    }
+
+    @Test
+    public void testStreamFailsWithTheConsumersException() throws Exception {
+        ambit.route("/ambit/dataset/1", dataset(1000, 0, 1000));
+        try {
+            datasetConsumer.streamDataset("1", "s", (row) -> {
+                throw new IllegalStateException("rejected " + row.getCompound().getURI());
+            }).get();
+            fail("The consumer threw");
+        } catch (ExecutionException ex) {
+            assertEquals("rejected c0", ex.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testBuildsColumns() throws Exception {
+        ambit.route("/ambit/dataset/1", dataset(3, 0, 3));
+        ColumnarDataset dataset = datasetConsumer.getColumnarDatasetById("1", "s").get();
+        assertEquals(3, dataset.getRowCount());
+        assertArrayEquals(new double[]{0.5, 1.5, 2.5}, dataset.getNumericColumn("f1"), 0);
+        assertEquals("s1", dataset.getValue(1, "f2"));
+        assertEquals(2, dataset.getRow("c2"));
+    }
+
+    @Test
+    public void testExpiredDeadlineSendsNothing() throws Exception {
+        ambit.route("/ambit/dataset/1", dataset(3, 0, 3));
+        try {
+            datasetConsumer.getDatasetById("1", "s", Deadline.after(0, TimeUnit.MILLISECONDS)).get();
+            fail("The deadline had passed");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof DeadlineExceededException);
+        }
+        assertTrue(ambit.getRequests().isEmpty());
+    }
+
+    @Test
+    public void testCachedDatasetIsNotFetchedAgain() throws Exception {
+        ResponseCache cache = new ResponseCache.Builder().setTtl(1, TimeUnit.HOURS).build();
+        DatasetResourceConsumer cached = new DatasetResourceConsumer(serializer, httpClient, ambit.getBasePath(), cache);
+        ambit.route("/ambit/dataset/1", dataset(3, 0, 3));
+
+        assertEquals(3, cached.getDatasetById("1", "s").get().getDataEntry().size());
+        assertEquals(3, cached.getDatasetById("1", "s").get().getDataEntry().size());
+        assertEquals(1, ambit.getRequests().size());
+
+        cached.getDatasetById("1", "other").get();
+        assertEquals(2, ambit.getRequests().size());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.consumer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ElementQueueTest {
+
+    private ArrayDeque<Runnable> tasks;
+    private Executor executor;
+    private List<Integer> consumed;
+
+    @Before
+    public void setUp() {
+        tasks = new ArrayDeque<>();
+        executor = tasks::add;
+        consumed = new ArrayList<>();
+    }
+
+    /**
+     * Runs the tasks handed to the executor so far, and the ones they hand
+     * on.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void testPassesElementsOnInOrder() throws Exception {
+        ElementQueue<Integer> elements = new ElementQueue<>(consumed::add, executor, 4, 1);
+        elements.accept(1);
+        elements.accept(2);
+        elements.accept(3);
+        elements.finish();
+        assertTrue(consumed.isEmpty());
+
+        runTasks();
+        assertEquals(Arrays.asList(1, 2, 3), consumed);
+        assertTrue(elements.drained().isDone());
+        elements.drained().get();
+    }
+
+    @Test
+    public void testDrainsOnlyOnceFinished() {
+        ElementQueue<Integer> elements = new ElementQueue<>(consumed::add, executor, 4, 1);
+        elements.accept(1);
+        runTasks();
+        assertFalse(elements.drained().isDone());
+        elements.finish();
+        runTasks();
+        assertTrue(elements.drained().isDone());
+    }
+
+    @Test
+    public void testReadsOnWhileTheConsumerKeepsUp() {
+        ElementQueue<Integer> elements = new ElementQueue<>(consumed::add, executor, 4, 1);
+        AtomicInteger reads = new AtomicInteger();
+        elements.accept(1);
+        elements.accept(2);
+        elements.whenReady(reads::incrementAndGet);
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void testHoldsTheReaderBackUntilTheLowWaterMark() {
+        ElementQueue<Integer> elements = new ElementQueue<>(consumed::add, executor, 4, 1);
+        List<Integer> consumedAtRead = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            elements.accept(i);
+        }
+        elements.whenReady(() -> consumedAtRead.add(consumed.size()));
+        assertTrue(consumedAtRead.isEmpty());
+
+        runTasks();
+        assertEquals(Arrays.asList(2), consumedAtRead);
+        assertEquals(Arrays.asList(1, 2, 3, 4), consumed);
+    }
+
+    @Test
+    public void testConsumerFailureDropsTheRest() throws Exception {
+        ElementQueue<Integer> elements = new ElementQueue<>((element) -> {
+            if (element == 2) {
+                throw new IllegalStateException("rejected 2");
+            }
+            consumed.add(element);
+        }, executor, 4, 1);
+        AtomicInteger reads = new AtomicInteger();
+        for (int i = 1; i <= 4; i++) {
+            elements.accept(i);
+        }
+        elements.whenReady(reads::incrementAndGet);
+        runTasks();
+
+        assertEquals(Arrays.asList(1), consumed);
+        assertEquals(0, reads.get());
+        try {
+            elements.drained().get();
+            fail("The consumer threw");
+        } catch (ExecutionException ex) {
+            assertEquals("rejected 2", ex.getCause().getMessage());
+        }
+        elements.accept(5);
+        elements.whenReady(reads::incrementAndGet);
+        runTasks();
+        assertEquals(Arrays.asList(1), consumed);
+        assertEquals(0, reads.get());
+    }
+
+    @Test
+    public void testAbortDropsWaitingElements() {
+        ElementQueue<Integer> elements = new ElementQueue<>(consumed::add, executor, 4, 1);
+        elements.accept(1);
+        elements.abort(new IllegalStateException("connection reset"));
+        runTasks();
+        assertTrue(consumed.isEmpty());
+        assertTrue(elements.drained().isCompletedExceptionally());
+    }
+}
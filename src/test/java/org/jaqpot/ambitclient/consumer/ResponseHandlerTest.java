@@ -0,0 +1,300 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.consumer;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseHeaders;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.uri.Uri;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.jaqpot.ambitclient.exception.ResourceNotFoundException;
+import org.jaqpot.ambitclient.serialize.IncrementalParser;
+import org.jaqpot.ambitclient.serialize.Serializer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ResponseHandlerTest {
+
+    private static final String URI = "http://ambit.local/ambit/dataset/1";
+
+    /**
+     * Reads the whole body as a string.
+     */
+    private static final Serializer TEXT = new Serializer() {
+
+        @Override
+        public void write(Object entity, OutputStream out) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(Object entity, Writer writer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String write(Object entity) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T parse(String content, Class<T> valueType) {
+            return valueType.cast(content);
+        }
+
+        @Override
+        public <T> T parse(InputStream src, Class<T> valueType) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4];
+            int read;
+            try {
+                while ((read = src.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return valueType.cast(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    };
+
+    private static HttpResponseStatus status(int statusCode) {
+        return new HttpResponseStatus(Uri.create(URI), null) {
+
+            @Override
+            public int getStatusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public String getStatusText() {
+                return "";
+            }
+
+            @Override
+            public String getProtocolName() {
+                return "HTTP";
+            }
+
+            @Override
+            public int getProtocolMajorVersion() {
+                return 1;
+            }
+
+            @Override
+            public int getProtocolMinorVersion() {
+                return 1;
+            }
+
+            @Override
+            public String getProtocolText() {
+                return "HTTP/1.1";
+            }
+
+            @Override
+            public SocketAddress getRemoteAddress() {
+                return null;
+            }
+
+            @Override
+            public SocketAddress getLocalAddress() {
+                return null;
+            }
+        };
+    }
+
+    private static HttpResponseBodyPart part(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new HttpResponseBodyPart(false) {
+
+            @Override
+            public int length() {
+                return bytes.length;
+            }
+
+            @Override
+            public byte[] getBodyPartBytes() {
+                return bytes;
+            }
+
+            @Override
+            public ByteBuffer getBodyByteBuffer() {
+                return ByteBuffer.wrap(bytes);
+            }
+        };
+    }
+
+    /**
+     * Records the chunks it is fed, copying them since they may be reused.
+     */
+    private static class RecordingParser implements IncrementalParser<String> {
+
+        private final List<String> fed = new ArrayList<>();
+
+        @Override
+        public void feed(ByteBuffer chunk) {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            fed.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String complete() {
+            return String.join("", fed);
+        }
+    }
+
+    /**
+     * Passes a response through the handler, as the HTTP client would.
+     */
+    private static <T> T receive(ResponseHandler<T> handler, int statusCode, HttpHeaders headers, String... parts) throws Exception {
+        handler.onStatusReceived(status(statusCode));
+        handler.onHeadersReceived(new HttpResponseHeaders(headers));
+        for (String part : parts) {
+            handler.onBodyPartReceived(part(part));
+        }
+        return handler.onCompleted();
+    }
+
+    @Test
+    public void testParsesTheBodyFromItsParts() throws Exception {
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, null);
+        assertEquals("hello world", receive(handler, 200, new DefaultHttpHeaders(), "hel", "lo w", "orld"));
+        assertEquals(11, handler.getBodyLength());
+        assertEquals(3, handler.getBody().size());
+        assertEquals("hello world", handler.getResult());
+    }
+
+    @Test
+    public void testPassesTheHeadersOn() throws Exception {
+        AtomicReference<HttpHeaders> received = new AtomicReference<>();
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, received::set);
+        HttpHeaders headers = new DefaultHttpHeaders().add(HttpHeaders.Names.ETAG, "\"v1\"");
+        receive(handler, 200, headers, "{}");
+        assertEquals("\"v1\"", received.get().get(HttpHeaders.Names.ETAG));
+    }
+
+    @Test
+    public void testNotFoundFailsWithoutKeepingTheBody() throws Exception {
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, null);
+        try {
+            receive(handler, 410, new DefaultHttpHeaders(), "gone");
+            fail("The resource is gone");
+        } catch (ResourceNotFoundException ex) {
+            assertEquals(410, ex.getStatusCode());
+        }
+        assertEquals(0, handler.getBodyLength());
+    }
+
+    @Test
+    public void testErrorStatusCarriesRetryAfter() throws Exception {
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, null);
+        try {
+            receive(handler, 503, new DefaultHttpHeaders().add(HttpHeaders.Names.RETRY_AFTER, "2"), "busy");
+            fail("Ambit is busy");
+        } catch (AmbitResponseException ex) {
+            assertEquals(503, ex.getStatusCode());
+            assertEquals(2000, ex.getRetryAfterMillis());
+            assertEquals(URI, ex.getUri());
+        }
+    }
+
+    @Test
+    public void testNotModifiedReturnsTheRevalidatedValue() throws Exception {
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, null);
+        handler.setNotModifiedValue("cached");
+        assertEquals("cached", receive(handler, 304, new DefaultHttpHeaders()));
+        assertTrue(handler.isNotModified());
+    }
+
+    @Test
+    public void testNotModifiedWithoutAValueFails() throws Exception {
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, null);
+        try {
+            receive(handler, 304, new DefaultHttpHeaders());
+            fail("Nothing was revalidated");
+        } catch (AmbitResponseException ex) {
+            assertEquals(304, ex.getStatusCode());
+        }
+        assertFalse(handler.isNotModified());
+    }
+
+    @Test
+    public void testFeedsAnIncrementalParserWithoutBuffering() throws Exception {
+        RecordingParser parser = new RecordingParser();
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, null, parser);
+        assertEquals("hello world", receive(handler, 200, new DefaultHttpHeaders(), "hel", "lo w", "orld"));
+        assertEquals(Arrays.asList("hel", "lo w", "orld"), parser.fed);
+        assertNull(handler.getBody());
+        assertEquals(11, handler.getBodyLength());
+    }
+
+    @Test
+    public void testKeepsTheBodyWhenAskedTo() throws Exception {
+        RecordingParser parser = new RecordingParser();
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, null, parser);
+        handler.setRetainBody(true);
+        assertEquals("hello world", receive(handler, 200, new DefaultHttpHeaders(), "hello", " world"));
+        assertEquals(2, handler.getBody().size());
+        assertEquals(5, handler.getBody().get(0).remaining());
+    }
+
+    @Test
+    public void testErrorBodiesAreNotFed() throws Exception {
+        RecordingParser parser = new RecordingParser();
+        ResponseHandler<String> handler = new ResponseHandler<>(TEXT, String.class, null, parser);
+        try {
+            receive(handler, 500, new DefaultHttpHeaders(), "<html>");
+            fail("Ambit failed");
+        } catch (AmbitResponseException ex) {
+            assertEquals(500, ex.getStatusCode());
+        }
+        assertTrue(parser.fed.isEmpty());
+    }
+}
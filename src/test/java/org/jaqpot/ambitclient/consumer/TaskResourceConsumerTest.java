@@ -0,0 +1,123 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.consumer;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.jaqpot.ambitclient.FakeTimer;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class TaskResourceConsumerTest {
+
+    private FakeTimer timer;
+    private List<CompletableFuture<AmbitTask>> polls;
+    private TaskResourceConsumer taskConsumer;
+
+    @Before
+    public void setUp() {
+        timer = new FakeTimer();
+        polls = new ArrayList<>();
+        taskConsumer = new TaskResourceConsumer(null, null, "http://ambit.local/ambit", timer) {
+            @Override
+            public CompletableFuture<AmbitTask> getTask(String taskId, String subjectId, Consumer<HttpHeaders> headersConsumer) {
+                CompletableFuture<AmbitTask> poll = new CompletableFuture<>();
+                polls.add(poll);
+                return poll;
+            }
+        };
+    }
+
+    private static AmbitTask task(String status) {
+        AmbitTask task = new AmbitTask();
+        task.setId("t1");
+        task.setStatus(status);
+        return task;
+    }
+
+    @Test
+    public void testPollsOnTheTimerUntilTheTaskFinishes() throws Exception {
+        CompletableFuture<AmbitTask> result = taskConsumer.waitTask("t1", 60000, "s");
+        assertEquals(1, polls.size());
+
+        polls.get(0).complete(task("Running"));
+        assertEquals(1, polls.size());
+        assertEquals(Arrays.asList(500L), timer.pendingMillis());
+
+        timer.advance(500, TimeUnit.MILLISECONDS);
+        assertEquals(2, polls.size());
+        polls.get(1).complete(task("Completed"));
+        assertEquals("Completed", result.get().getStatus());
+        assertTrue(timer.pendingMillis().isEmpty());
+    }
+
+    @Test
+    public void testFailsOnceTheTimeoutHasPassed() throws Exception {
+        CompletableFuture<AmbitTask> result = taskConsumer.waitTask("t1", 0, "s");
+        polls.get(0).complete(task("Queued"));
+        try {
+            result.get();
+            fail("The task did not finish in time");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof AmbitClientException);
+        }
+        assertTrue(timer.pendingMillis().isEmpty());
+    }
+
+    @Test
+    public void testCancellingStopsPolling() throws Exception {
+        CompletableFuture<AmbitTask> result = taskConsumer.waitTask("t1", 60000, "s");
+        polls.get(0).complete(task("Running"));
+        result.cancel(true);
+        assertTrue(timer.pendingMillis().isEmpty());
+        timer.advance(1, TimeUnit.SECONDS);
+        assertEquals(1, polls.size());
+    }
+
+    @Test
+    public void testCancellingCancelsThePollInFlight() throws Exception {
+        CompletableFuture<AmbitTask> result = taskConsumer.waitTask("t1", 60000, "s");
+        result.cancel(true);
+        assertTrue(polls.get(0).isCancelled());
+    }
+}
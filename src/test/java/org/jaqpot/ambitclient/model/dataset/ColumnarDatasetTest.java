@@ -0,0 +1,102 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.model.dataset;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ColumnarDatasetTest {
+
+    private static Dataset header(String... featureURIs) {
+        LinkedHashSet<FeatureInfo> features = new LinkedHashSet<>();
+        for (String uri : featureURIs) {
+            features.add(new FeatureInfo(uri, uri));
+        }
+        Dataset header = new Dataset();
+        header.setFeatures(features);
+        return header;
+    }
+
+    private static DataEntry row(String compoundURI, Object... values) {
+        Substance compound = new Substance();
+        compound.setURI(compoundURI);
+        TreeMap<String, Object> map = new TreeMap<>();
+        for (int i = 0; i < values.length; i += 2) {
+            map.put((String) values[i], values[i + 1]);
+        }
+        DataEntry entry = new DataEntry();
+        entry.setCompound(compound);
+        entry.setValues(map);
+        return entry;
+    }
+
+    @Test
+    public void testHasAColumnPerFeature() {
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder();
+        builder.accept(row("c0", "f2", 1.5));
+        builder.accept(row("c1", "f2", 2.5));
+        ColumnarDataset dataset = builder.build(header("f1", "f2"));
+        assertEquals(Arrays.asList("f1", "f2"), Arrays.asList(dataset.getColumnNames().toArray()));
+        assertNull(dataset.getValue(0, "f1"));
+        assertTrue(Double.isNaN(dataset.getNumericColumn("f1")[1]));
+        assertArrayEquals(new double[]{1.5, 2.5}, dataset.getNumericColumn("f2"), 0);
+    }
+
+    @Test
+    public void testKeepsValuesOfUnlistedFeatures() {
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder();
+        builder.accept(row("c0", "f1", 1.0, "extra", "x"));
+        ColumnarDataset dataset = builder.build(header("f1"));
+        assertEquals(Arrays.asList("f1", "extra"), Arrays.asList(dataset.getColumnNames().toArray()));
+        assertEquals("x", dataset.getValue(0, "extra"));
+    }
+
+    @Test
+    public void testKeepsNumberTypes() {
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder();
+        builder.accept(row("c0", "count", 3, "mixed", 1, "big", (1L << 53) + 1));
+        builder.accept(row("c1", "count", 4, "mixed", 2.5, "big", 7L));
+        ColumnarDataset dataset = builder.build(header("count", "mixed", "big"));
+        assertEquals(3, dataset.getValue(0, "count"));
+        assertEquals(4, dataset.getDataEntry(1).getValues().get("count"));
+        assertEquals(1, dataset.getValue(0, "mixed"));
+        assertEquals(2.5, dataset.getValue(1, "mixed"));
+        assertArrayEquals(new double[]{1, 2.5}, dataset.getNumericColumn("mixed"), 0);
+        assertEquals((1L << 53) + 1, dataset.getValue(0, "big"));
+        assertEquals(7L, dataset.getValue(1, "big"));
+    }
+}
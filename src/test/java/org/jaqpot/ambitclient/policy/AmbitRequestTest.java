@@ -0,0 +1,70 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import org.jaqpot.ambitclient.consumer.ResourceType;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class AmbitRequestTest {
+
+    private static String endpoint(String uri) {
+        return new AmbitRequest("GET", uri, null, null).getEndpoint();
+    }
+
+    @Test
+    public void testIdsShareAnEndpoint() {
+        assertEquals("GET /ambit/dataset/*", endpoint("http://ambit.local/ambit/dataset/1"));
+        assertEquals(endpoint("http://ambit.local/ambit/dataset/1"), endpoint("http://ambit.local/ambit/dataset/R42"));
+        assertEquals(endpoint("http://ambit.local/ambit/task/1a2b"), endpoint("http://ambit.local/ambit/task/3c4d"));
+    }
+
+    @Test
+    public void testResourcesHaveTheirOwnEndpoints() {
+        String dataset = endpoint("http://ambit.local/ambit/dataset/1");
+        String page = endpoint("http://ambit.local/ambit/dataset/1?page=3&pagesize=100");
+        String task = endpoint("http://ambit.local/ambit/task/1a2b");
+        assertEquals("GET /ambit/dataset/*?page&pagesize", page);
+        assertNotEquals(dataset, page);
+        assertNotEquals(dataset, task);
+        assertNotEquals(page, task);
+    }
+
+    @Test
+    public void testEndpointsDependOnTheMethodNotTheType() {
+        String uri = "http://ambit.local/ambit/dataset/1";
+        assertEquals(endpoint(uri), new AmbitRequest("GET", uri, null, ResourceType.DATASET).getEndpoint());
+        assertEquals("PUT /ambit/dataset/*", new AmbitRequest("PUT", uri, null, null).getEndpoint());
+    }
+}
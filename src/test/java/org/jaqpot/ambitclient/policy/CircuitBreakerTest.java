@@ -0,0 +1,169 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.jaqpot.ambitclient.exception.CircuitOpenException;
+import org.jaqpot.ambitclient.exception.ResourceNotFoundException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class CircuitBreakerTest {
+
+    private static final String HOST = "ambit.local:8080";
+    private static final AmbitRequest GET = new AmbitRequest("GET", "http://" + HOST + "/ambit/dataset/1", "s", ResourceType.DATASET);
+
+    private static CircuitBreaker.Builder breaker() {
+        return new CircuitBreaker.Builder()
+                .setWindowSize(4)
+                .setMinCalls(4)
+                .setFailureRateThreshold(0.5)
+                .setProbes(2);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException ex) {
+            return ex.getCause();
+        }
+    }
+
+    @Test
+    public void testOpensOnFailureRateAndRejectsWithoutSending() throws Exception {
+        CircuitBreaker circuitBreaker = breaker().setOpenDuration(1, TimeUnit.HOURS).build();
+        circuitBreaker.execute(GET, () -> CompletableFuture.completedFuture("ok"));
+        circuitBreaker.execute(GET, () -> CompletableFuture.completedFuture("ok"));
+        circuitBreaker.execute(GET, () -> failed(new AmbitResponseException(GET.getUri(), 503)));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+        circuitBreaker.execute(GET, () -> failed(new AmbitResponseException(GET.getUri(), 500)));
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(HOST));
+
+        AtomicInteger sent = new AtomicInteger();
+        Throwable rejected = failure(circuitBreaker.execute(GET, () -> {
+            sent.incrementAndGet();
+            return CompletableFuture.completedFuture("ok");
+        }));
+        assertTrue(rejected instanceof CircuitOpenException);
+        assertEquals(HOST, ((CircuitOpenException) rejected).getHost());
+        assertTrue(((CircuitOpenException) rejected).getRetryAfterMillis() > 0);
+        assertEquals(0, sent.get());
+    }
+
+    @Test
+    public void testClientErrorsDoNotOpen() throws Exception {
+        CircuitBreaker circuitBreaker = breaker().setOpenDuration(1, TimeUnit.HOURS).build();
+        for (int i = 0; i < 8; i++) {
+            circuitBreaker.execute(GET, () -> failed(new ResourceNotFoundException(GET.getUri(), 404)));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+    }
+
+    @Test
+    public void testHalfOpenClosesAfterSuccessfulProbes() throws Exception {
+        CircuitBreaker circuitBreaker = breaker().setOpenDuration(0, TimeUnit.MILLISECONDS).build();
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.execute(GET, () -> failed(new AmbitResponseException(GET.getUri(), 503)));
+        }
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(HOST));
+
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        CompletableFuture<String> probe1 = circuitBreaker.execute(GET, () -> first);
+        CompletableFuture<String> probe2 = circuitBreaker.execute(GET, () -> second);
+        assertTrue(failure(circuitBreaker.execute(GET, () -> CompletableFuture.completedFuture("third"))) instanceof CircuitOpenException);
+
+        first.complete("a");
+        second.complete("b");
+        assertEquals("a", probe1.get());
+        assertEquals("b", probe2.get());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+    }
+
+    @Test
+    public void testFailedProbesOpenAgain() throws Exception {
+        CircuitBreaker circuitBreaker = breaker().setOpenDuration(0, TimeUnit.MILLISECONDS).build();
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.execute(GET, () -> failed(new AmbitResponseException(GET.getUri(), 503)));
+        }
+        circuitBreaker.execute(GET, () -> failed(new AmbitResponseException(GET.getUri(), 503)));
+        circuitBreaker.execute(GET, () -> failed(new AmbitResponseException(GET.getUri(), 503)));
+        // the open duration is zero, so the new open circuit is half-open at once
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(HOST));
+        circuitBreaker.execute(GET, () -> CompletableFuture.completedFuture("a"));
+        circuitBreaker.execute(GET, () -> CompletableFuture.completedFuture("b"));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+    }
+
+    @Test
+    public void testCancelledProbeFreesItsSlot() throws Exception {
+        CircuitBreaker circuitBreaker = breaker().setProbes(1).setOpenDuration(0, TimeUnit.MILLISECONDS).build();
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.execute(GET, () -> failed(new AmbitResponseException(GET.getUri(), 503)));
+        }
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> probe = circuitBreaker.execute(GET, () -> pending);
+        assertTrue(failure(circuitBreaker.execute(GET, () -> CompletableFuture.completedFuture("x"))) instanceof CircuitOpenException);
+
+        probe.cancel(true);
+        assertTrue(pending.isCancelled());
+        assertEquals("y", circuitBreaker.execute(GET, () -> CompletableFuture.completedFuture("y")).get());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+    }
+
+    @Test
+    public void testOutcomesFromAnEarlierStateAreIgnored() throws Exception {
+        CircuitBreaker circuitBreaker = breaker().setOpenDuration(1, TimeUnit.HOURS).build();
+        CompletableFuture<String> late = new CompletableFuture<>();
+        circuitBreaker.execute(GET, () -> late);
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.execute(GET, () -> failed(new AmbitResponseException(GET.getUri(), 503)));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(HOST));
+        late.complete("ok");
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(HOST));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final String URI = "http://ambit.local/ambit/dataset/1";
+
+    private static AmbitRequest get(String subjectId) {
+        return new AmbitRequest("GET", URI, subjectId, ResourceType.DATASET);
+    }
+
+    @Test
+    public void testQueuesRequestsOverTheLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().setInitialLimit(2).setMaxLimit(2).build();
+        List<CompletableFuture<String>> sent = new ArrayList<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(limiter.execute(get("s"), () -> {
+                CompletableFuture<String> future = new CompletableFuture<>();
+                sent.add(future);
+                return future;
+            }));
+        }
+        assertEquals(2, sent.size());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getQueued());
+
+        sent.get(0).complete("a");
+        assertEquals("a", results.get(0).get());
+        assertEquals(3, sent.size());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void testCancelledWaitersAreNeverSent() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().setInitialLimit(1).setMaxLimit(1).build();
+        CompletableFuture<String> first = new CompletableFuture<>();
+        AtomicInteger sent = new AtomicInteger();
+        limiter.execute(get("s"), () -> first);
+        CompletableFuture<String> waiting = limiter.execute(get("s"), () -> {
+            sent.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        waiting.cancel(true);
+        first.complete("a");
+        assertEquals(0, sent.get());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void testServesSubjectsInTurn() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().setInitialLimit(1).setMaxLimit(1).build();
+        List<String> order = new ArrayList<>();
+        CompletableFuture<String> blocker = new CompletableFuture<>();
+        limiter.execute(get("x"), () -> blocker);
+        for (String subject : Arrays.asList("a", "a", "a", "b", "b")) {
+            limiter.execute(get(subject), () -> {
+                order.add(subject);
+                return CompletableFuture.completedFuture(subject);
+            });
+        }
+        blocker.complete("x");
+        assertEquals(Arrays.asList("a", "b", "a", "b", "a"), order);
+    }
+
+    @Test
+    public void testDrainsManyImmediateFailuresWithoutRecursing() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().setInitialLimit(1).setMaxLimit(1).build();
+        CompletableFuture<String> blocker = new CompletableFuture<>();
+        limiter.execute(get("s"), () -> blocker);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            results.add(limiter.execute(get("s"), () -> {
+                CompletableFuture<String> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("refused"));
+                return failed;
+            }));
+        }
+        blocker.complete("x");
+        for (CompletableFuture<String> result : results) {
+            assertTrue(result.isCompletedExceptionally());
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void testOverloadLowersTheLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder()
+                .setInitialLimit(10).setMinLimit(2).setBackoffRatio(0.5).build();
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new AmbitResponseException(URI, 503));
+        try {
+            limiter.execute(get("s"), () -> failed).get();
+            fail("The attempt failed");
+        } catch (ExecutionException ex) {
+            assertEquals(503, ((AmbitResponseException) ex.getCause()).getStatusCode());
+        }
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void testClientErrorsKeepTheLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().setInitialLimit(10).setBackoffRatio(0.5).build();
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new AmbitResponseException(URI, 404));
+        limiter.execute(get("s"), () -> failed).exceptionally(ex -> null).get();
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testStreamedReadsKeepTheLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().setInitialLimit(10).setBackoffRatio(0.5).build();
+        for (int i = 0; i < 20; i++) {
+            limiter.execute(get("s"), () -> CompletableFuture.completedFuture("a")).get();
+        }
+        AmbitRequest streamed = new AmbitRequest("GET", URI, "s", null, false);
+        limiter.execute(streamed, () -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture("slow");
+        }).get();
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsMinLimitBelowOne() {
+        new ConcurrencyLimiter.Builder().setMinLimit(0);
+    }
+}
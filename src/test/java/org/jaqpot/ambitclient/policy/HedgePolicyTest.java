@@ -0,0 +1,162 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.jaqpot.ambitclient.FakeTimer;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class HedgePolicyTest {
+
+    private static final String URI = "http://ambit.local/ambit/dataset/1";
+    private static final AmbitRequest GET = new AmbitRequest("GET", URI, "s", ResourceType.DATASET);
+
+    private FakeTimer timer;
+    private HedgePolicy hedgePolicy;
+    private List<CompletableFuture<String>> attempts;
+    private Supplier<CompletableFuture<String>> attempt;
+
+    @Before
+    public void setUp() {
+        timer = new FakeTimer();
+        hedgePolicy = new HedgePolicy.Builder().setPercentile(0.5).setMaxHedgeRatio(0).build(timer);
+        attempts = new ArrayList<>();
+        attempt = () -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            attempts.add(future);
+            return future;
+        };
+    }
+
+    /**
+     * Gives the endpoint enough latency samples for hedging to start.
+     */
+    private void warmUp() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            assertEquals("warm", hedgePolicy.execute(GET, () -> CompletableFuture.completedFuture("warm")).get());
+        }
+    }
+
+    @Test
+    public void testDoesNotHedgeWithoutSamples() throws Exception {
+        hedgePolicy.execute(GET, attempt);
+        assertEquals(Collections.emptyList(), timer.pendingMillis());
+        timer.advance(1, TimeUnit.MINUTES);
+        assertEquals(1, attempts.size());
+    }
+
+    @Test
+    public void testSlowReadIsHedgedAndTheFirstAnswerWins() throws Exception {
+        warmUp();
+        CompletableFuture<String> result = hedgePolicy.execute(GET, attempt);
+        assertEquals(1, attempts.size());
+        assertEquals(1, timer.pendingMillis().size());
+
+        timer.advance(1, TimeUnit.SECONDS);
+        assertEquals(2, attempts.size());
+        assertEquals(1, hedgePolicy.getHedged());
+
+        attempts.get(1).complete("hedge");
+        assertEquals("hedge", result.get());
+        assertTrue(attempts.get(0).isCancelled());
+    }
+
+    @Test
+    public void testFailsOnlyOnceEveryAttemptHasFailed() throws Exception {
+        warmUp();
+        CompletableFuture<String> result = hedgePolicy.execute(GET, attempt);
+        timer.advance(1, TimeUnit.SECONDS);
+        attempts.get(0).completeExceptionally(new AmbitResponseException(URI, 503));
+        assertFalse(result.isDone());
+        attempts.get(1).completeExceptionally(new AmbitResponseException(URI, 504));
+        try {
+            result.get();
+            fail("Both attempts failed");
+        } catch (ExecutionException ex) {
+            assertEquals(504, ((AmbitResponseException) ex.getCause()).getStatusCode());
+        }
+    }
+
+    @Test
+    public void testFastAnswerCancelsTheHedge() throws Exception {
+        warmUp();
+        CompletableFuture<String> result = hedgePolicy.execute(GET, attempt);
+        attempts.get(0).complete("first");
+        assertEquals("first", result.get());
+        assertEquals(Collections.emptyList(), timer.pendingMillis());
+        timer.advance(1, TimeUnit.SECONDS);
+        assertEquals(1, attempts.size());
+    }
+
+    @Test
+    public void testHedgesStayWithinTheBudget() throws Exception {
+        warmUp();
+        for (int i = 0; i < 15; i++) {
+            hedgePolicy.execute(GET, attempt);
+        }
+        timer.advance(1, TimeUnit.SECONDS);
+        assertEquals(10, hedgePolicy.getHedged());
+        assertEquals(25, attempts.size());
+    }
+
+    @Test
+    public void testOnlyReplayableGetsAreHedged() throws Exception {
+        warmUp();
+        hedgePolicy.execute(new AmbitRequest("PUT", URI, "s", null), attempt);
+        hedgePolicy.execute(new AmbitRequest("GET", URI, "s", ResourceType.DATASET, false), attempt);
+        timer.advance(1, TimeUnit.SECONDS);
+        assertEquals(2, attempts.size());
+        assertEquals(0, hedgePolicy.getHedged());
+    }
+
+    @Test
+    public void testCancellingCancelsEveryAttempt() throws Exception {
+        warmUp();
+        CompletableFuture<String> result = hedgePolicy.execute(GET, attempt);
+        timer.advance(1, TimeUnit.SECONDS);
+        result.cancel(true);
+        assertTrue(attempts.get(0).isCancelled());
+        assertTrue(attempts.get(1).isCancelled());
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.policy;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.jaqpot.ambitclient.Deadline;
+import org.jaqpot.ambitclient.FakeTimer;
+import org.jaqpot.ambitclient.consumer.ResourceType;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.jaqpot.ambitclient.exception.ResourceNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class RetryPolicyTest {
+
+    private static final String URI = "http://ambit.local/ambit/dataset/1";
+    private static final AmbitRequest GET = new AmbitRequest("GET", URI, "s", ResourceType.DATASET);
+
+    private FakeTimer timer;
+    private RetryPolicy retryPolicy;
+
+    @Before
+    public void setUp() {
+        timer = new FakeTimer();
+        retryPolicy = new RetryPolicy.Builder()
+                .setMaxRetries(2)
+                .setBaseDelay(100, TimeUnit.MILLISECONDS)
+                .setMaxDelay(1, TimeUnit.SECONDS)
+                .build(timer);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    /**
+     * Returns an attempt that answers with the given futures in turn.
+     */
+    @SafeVarargs
+    private static Supplier<CompletableFuture<String>> answers(AtomicInteger sent, Supplier<CompletableFuture<String>>... answers) {
+        return () -> answers[Math.min(sent.getAndIncrement(), answers.length - 1)].get();
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException ex) {
+            return ex.getCause();
+        }
+    }
+
+    @Test
+    public void testRetriesTransientFailuresAfterBackoff() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        CompletableFuture<String> result = retryPolicy.execute(GET, answers(sent,
+                () -> failed(new AmbitResponseException(URI, 503)),
+                () -> failed(new IOException("connection reset")),
+                () -> CompletableFuture.completedFuture("ok")));
+        assertEquals(1, sent.get());
+        assertFalse(result.isDone());
+        assertEquals(1, timer.pendingMillis().size());
+        assertTrue(timer.pendingMillis().get(0) <= 100);
+
+        timer.advance(timer.pendingMillis().get(0), TimeUnit.MILLISECONDS);
+        assertEquals(2, sent.get());
+        assertEquals(1, timer.pendingMillis().size());
+        assertTrue(timer.pendingMillis().get(0) <= 200);
+
+        timer.advance(timer.pendingMillis().get(0), TimeUnit.MILLISECONDS);
+        assertEquals(3, sent.get());
+        assertEquals("ok", result.get());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        CompletableFuture<String> result = retryPolicy.execute(GET, answers(sent, () -> failed(new AmbitResponseException(URI, 502))));
+        timer.advance(10, TimeUnit.SECONDS);
+        assertEquals(3, sent.get());
+        Throwable failure = failure(result);
+        assertTrue(failure instanceof AmbitResponseException);
+        assertEquals(502, ((AmbitResponseException) failure).getStatusCode());
+    }
+
+    @Test
+    public void testDoesNotRetryPermanentFailures() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        CompletableFuture<String> result = retryPolicy.execute(GET, answers(sent, () -> failed(new ResourceNotFoundException(URI, 404))));
+        assertTrue(failure(result) instanceof ResourceNotFoundException);
+        assertEquals(1, sent.get());
+        assertEquals(Collections.emptyList(), timer.pendingMillis());
+    }
+
+    @Test
+    public void testDoesNotRetryPostsOrStreamedReads() throws Exception {
+        for (AmbitRequest request : Arrays.asList(
+                new AmbitRequest("POST", URI, "s", null),
+                new AmbitRequest("GET", URI, "s", null, false))) {
+            AtomicInteger sent = new AtomicInteger();
+            CompletableFuture<String> result = retryPolicy.execute(request, answers(sent, () -> failed(new AmbitResponseException(URI, 503))));
+            assertTrue(failure(result) instanceof AmbitResponseException);
+            assertEquals(1, sent.get());
+        }
+        assertEquals(Collections.emptyList(), timer.pendingMillis());
+    }
+
+    @Test
+    public void testWaitsForRetryAfter() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        CompletableFuture<String> result = retryPolicy.execute(GET, answers(sent,
+                () -> failed(new AmbitResponseException(URI, 429, 700)),
+                () -> CompletableFuture.completedFuture("ok")));
+        assertEquals(Collections.singletonList(700L), timer.pendingMillis());
+        timer.advance(699, TimeUnit.MILLISECONDS);
+        assertEquals(1, sent.get());
+        timer.advance(1, TimeUnit.MILLISECONDS);
+        assertEquals("ok", result.get());
+    }
+
+    @Test
+    public void testDoesNotRetryPastTheDeadline() throws Exception {
+        AmbitRequest request = new AmbitRequest("GET", URI, "s", ResourceType.DATASET, true, Deadline.after(1, TimeUnit.HOURS));
+        AtomicInteger sent = new AtomicInteger();
+        RetryPolicy patient = new RetryPolicy.Builder().setMaxDelay(2, TimeUnit.HOURS).build(timer);
+        CompletableFuture<String> result = patient.execute(request, answers(sent, () -> failed(new AmbitResponseException(URI, 503, TimeUnit.HOURS.toMillis(2)))));
+        assertTrue(failure(result) instanceof AmbitResponseException);
+        assertEquals(1, sent.get());
+        assertEquals(Collections.emptyList(), timer.pendingMillis());
+    }
+
+    @Test
+    public void testCancellingDropsThePendingRetry() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        CompletableFuture<String> result = retryPolicy.execute(GET, answers(sent,
+                () -> failed(new AmbitResponseException(URI, 503)),
+                () -> CompletableFuture.completedFuture("ok")));
+        result.cancel(true);
+        timer.advance(10, TimeUnit.SECONDS);
+        assertEquals(1, sent.get());
+    }
+
+    @Test
+    public void testCancellingCancelsTheAttemptInFlight() throws Exception {
+        CompletableFuture<String> attempt = new CompletableFuture<>();
+        CompletableFuture<String> result = retryPolicy.execute(GET, () -> attempt);
+        result.cancel(true);
+        assertTrue(attempt.isCancelled());
+    }
+
+    @Test
+    public void testRetryBudgetStopsRetriesWhenAmbitKeepsFailing() throws Exception {
+        RetryPolicy budgeted = new RetryPolicy.Builder().setMaxTokens(4).setMaxRetries(10).build(timer);
+        AtomicInteger sent = new AtomicInteger();
+        CompletableFuture<String> result = budgeted.execute(GET, answers(sent, () -> failed(new AmbitResponseException(URI, 503))));
+        timer.advance(1, TimeUnit.MINUTES);
+        assertTrue(result.isCompletedExceptionally());
+        // four tokens, and retries stop once the bucket is no longer more than half full
+        assertEquals(2, sent.get());
+        assertEquals(2.0, budgeted.getTokens(), 0.001);
+    }
+}
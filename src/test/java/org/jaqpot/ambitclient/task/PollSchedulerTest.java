@@ -0,0 +1,102 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.task;
+
+import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class PollSchedulerTest {
+
+    private static AmbitTask finished(String name, long started, long completed) {
+        AmbitTask task = new AmbitTask();
+        task.setName(name);
+        task.setStatus("Completed");
+        task.setStarted(started);
+        task.setCompleted(completed);
+        return task;
+    }
+
+    @Test
+    public void testPollsAtOnceWithoutHistory() {
+        PollScheduler scheduler = new PollScheduler(20, 10000);
+        assertEquals(-1, scheduler.expectedMillis("model"));
+        assertEquals(0, scheduler.firstDelay(finished("model", 0, 0)));
+    }
+
+    @Test
+    public void testLearnsTheMedianCompletionTime() {
+        PollScheduler scheduler = new PollScheduler(20, 10000);
+        scheduler.record(finished("model", 1000, 2000));
+        scheduler.record(finished("model", 1000, 4000));
+        scheduler.record(finished("model", 1000, 31000));
+        scheduler.record(finished("other", 1000, 1100));
+        assertEquals(3000, scheduler.expectedMillis("model"));
+        assertEquals(3000, scheduler.firstDelay(finished("model", 0, 0)));
+        assertEquals(100, scheduler.expectedMillis("other"));
+    }
+
+    @Test
+    public void testIgnoresTasksWithoutTimestamps() {
+        PollScheduler scheduler = new PollScheduler(20, 10000);
+        AmbitTask task = finished("model", 1000, 2000);
+        task.setCompleted(null);
+        scheduler.record(task);
+        scheduler.record(finished("model", 2000, 1000));
+        assertEquals(-1, scheduler.expectedMillis("model"));
+    }
+
+    @Test
+    public void testFirstDelayIsCappedAtTheMaximumInterval() {
+        PollScheduler scheduler = new PollScheduler(20, 10000);
+        scheduler.record(finished("model", 0, 60000));
+        assertEquals(10000, scheduler.firstDelay(finished("model", 0, 0)));
+    }
+
+    @Test
+    public void testBacksOffWithJitterUpToTheMaximum() {
+        PollScheduler scheduler = new PollScheduler(20, 10000);
+        scheduler.record(finished("model", 0, 1600));
+        for (int i = 0; i < 100; i++) {
+            long first = scheduler.nextDelay("model", 0);
+            assertTrue(first >= 100 && first <= 200);
+            long third = scheduler.nextDelay("model", 2);
+            assertTrue(third >= 400 && third <= 800);
+            long last = scheduler.nextDelay("model", 40);
+            assertTrue(last >= 5000 && last <= 10000);
+            long unknown = scheduler.nextDelay("unknown", 0);
+            assertTrue(unknown >= 10 && unknown <= 20);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.task;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.jaqpot.ambitclient.Deadline;
+import org.jaqpot.ambitclient.FakeTimer;
+import org.jaqpot.ambitclient.consumer.TaskResourceConsumer;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.jaqpot.ambitclient.exception.AmbitResponseException;
+import org.jaqpot.ambitclient.exception.DeadlineExceededException;
+import org.jaqpot.ambitclient.model.dto.ambit.AmbitTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class TaskWatcherTest {
+
+    private FakeTimer timer;
+    private List<CompletableFuture<AmbitTask>> polls;
+    private TaskWatcher taskWatcher;
+
+    @Before
+    public void setUp() {
+        timer = new FakeTimer();
+        polls = new ArrayList<>();
+        TaskResourceConsumer taskConsumer = new TaskResourceConsumer(null, null, "http://ambit.local/ambit", timer) {
+            @Override
+            public CompletableFuture<AmbitTask> getTask(String taskId, String subjectId, Consumer<HttpHeaders> headersConsumer) {
+                CompletableFuture<AmbitTask> poll = new CompletableFuture<>();
+                polls.add(poll);
+                return poll;
+            }
+        };
+        taskWatcher = new TaskWatcher(taskConsumer, timer, new PollScheduler(0, 0), 4);
+    }
+
+    @After
+    public void tearDown() {
+        taskWatcher.close();
+    }
+
+    private static AmbitTask task(String status) {
+        AmbitTask task = new AmbitTask();
+        task.setId("t1");
+        task.setStatus(status);
+        if ("Completed".equals(status)) {
+            task.setResult("http://ambit.local/ambit/dataset/1");
+        }
+        return task;
+    }
+
+    @Test
+    public void testPollsUntilTheTaskCompletes() throws Exception {
+        CompletableFuture<AmbitTask> result = taskWatcher.watch("t1", 10000, "s");
+        timer.advance(0, TimeUnit.MILLISECONDS);
+        assertEquals(1, polls.size());
+
+        polls.get(0).complete(task("Running"));
+        timer.advance(0, TimeUnit.MILLISECONDS);
+        assertEquals(2, polls.size());
+        assertFalse(result.isDone());
+
+        polls.get(1).complete(task("Completed"));
+        assertEquals("Completed", result.get().getStatus());
+        assertEquals(0, taskWatcher.size());
+    }
+
+    @Test
+    public void testFailsWhenTheTaskFails() throws Exception {
+        CompletableFuture<AmbitTask> result = taskWatcher.watch("t1", 10000, "s");
+        timer.advance(0, TimeUnit.MILLISECONDS);
+        AmbitTask failed = task("Error");
+        failed.setError("out of memory");
+        polls.get(0).complete(failed);
+        try {
+            result.get();
+            fail("The task failed");
+        } catch (ExecutionException ex) {
+            assertEquals("Ambit task t1 failed: out of memory", ex.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testFinishedTasksAreNotPolled() throws Exception {
+        assertEquals("Completed", taskWatcher.watch(task("Completed"), 10000, "s").get().getStatus());
+        assertTrue(taskWatcher.watch(task("Cancelled"), 10000, "s").isCompletedExceptionally());
+        timer.advance(1, TimeUnit.SECONDS);
+        assertTrue(polls.isEmpty());
+    }
+
+    @Test
+    public void testTimesOut() throws Exception {
+        CompletableFuture<AmbitTask> result = taskWatcher.watch("t1", 1000, "s");
+        timer.advance(999, TimeUnit.MILLISECONDS);
+        assertFalse(result.isDone());
+        timer.advance(1, TimeUnit.MILLISECONDS);
+        try {
+            result.get();
+            fail("The task did not finish in time");
+        } catch (ExecutionException ex) {
+            assertEquals(AmbitClientException.class, ex.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void testFailsWhenTheDeadlinePasses() throws Exception {
+        CompletableFuture<AmbitTask> result = taskWatcher.watch(task("Queued"), Deadline.after(1, TimeUnit.SECONDS), "s");
+        timer.advance(1, TimeUnit.SECONDS);
+        try {
+            result.get();
+            fail("The deadline passed");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof DeadlineExceededException);
+        }
+    }
+
+    @Test
+    public void testCallersOfTheSameTaskShareOnePoll() throws Exception {
+        CompletableFuture<AmbitTask> first = taskWatcher.watch("t1", 10000, "s");
+        CompletableFuture<AmbitTask> second = taskWatcher.watch("t1", 10000, "s");
+        timer.advance(0, TimeUnit.MILLISECONDS);
+        assertEquals(1, polls.size());
+        assertEquals(1, taskWatcher.size());
+
+        polls.get(0).complete(task("Completed"));
+        assertSame(first.get(), second.get());
+    }
+
+    @Test
+    public void testCancellingTheLastCallerCancelsThePoll() throws Exception {
+        CompletableFuture<AmbitTask> first = taskWatcher.watch("t1", 10000, "s");
+        CompletableFuture<AmbitTask> second = taskWatcher.watch("t1", 10000, "s");
+        timer.advance(0, TimeUnit.MILLISECONDS);
+
+        first.cancel(true);
+        assertFalse(polls.get(0).isCancelled());
+        assertEquals(1, taskWatcher.size());
+
+        second.cancel(true);
+        assertTrue(polls.get(0).isCancelled());
+        assertEquals(0, taskWatcher.size());
+        timer.advance(1, TimeUnit.SECONDS);
+        assertEquals(1, polls.size());
+    }
+
+    @Test
+    public void testPollsAgainAfterATransientFailure() throws Exception {
+        CompletableFuture<AmbitTask> result = taskWatcher.watch("t1", 10000, "s");
+        timer.advance(0, TimeUnit.MILLISECONDS);
+        polls.get(0).completeExceptionally(new AmbitResponseException("http://ambit.local/ambit/task/t1", 503));
+        assertFalse(result.isDone());
+
+        timer.advance(0, TimeUnit.MILLISECONDS);
+        assertEquals(2, polls.size());
+        polls.get(1).complete(task("Completed"));
+        assertEquals("Completed", result.get().getStatus());
+    }
+
+    @Test
+    public void testFailsOnAnErrorThatWillNotGoAway() throws Exception {
+        CompletableFuture<AmbitTask> result = taskWatcher.watch("t1", 10000, "s");
+        timer.advance(0, TimeUnit.MILLISECONDS);
+        polls.get(0).completeExceptionally(new AmbitResponseException("http://ambit.local/ambit/task/t1", 404));
+        try {
+            result.get();
+            fail("The task does not exist");
+        } catch (ExecutionException ex) {
+            assertEquals(404, ((AmbitResponseException) ex.getCause()).getStatusCode());
+        }
+        timer.advance(1, TimeUnit.SECONDS);
+        assertEquals(1, polls.size());
+    }
+
+    @Test
+    public void testCloseFailsWatchesAndCancelsTheirPolls() throws Exception {
+        CompletableFuture<AmbitTask> result = taskWatcher.watch("t1", 10000, "s");
+        timer.advance(0, TimeUnit.MILLISECONDS);
+        taskWatcher.close();
+        assertTrue(result.isCompletedExceptionally());
+        assertTrue(polls.get(0).isCancelled());
+
+        CompletableFuture<AmbitTask> late = taskWatcher.watch("t2", 10000, "s");
+        try {
+            late.get();
+            fail("The watcher is closed");
+        } catch (ExecutionException ex) {
+            assertEquals("Task watcher is closed", ex.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.util;
+
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.jaqpot.ambitclient.LocalAmbit;
+import org.jaqpot.ambitclient.exception.AmbitClientException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class ConnectionWarmerTest {
+
+    private LocalAmbit ambit;
+    private AsyncHttpClient httpClient;
+
+    @Before
+    public void setUp() throws Exception {
+        ambit = new LocalAmbit();
+        httpClient = new DefaultAsyncHttpClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.close();
+        ambit.close();
+    }
+
+    @Test
+    public void testOpensOneConnectionFirstAndThenTheRest() throws Exception {
+        ConnectionWarmer warmer = new ConnectionWarmer(httpClient, ambit.getBasePath());
+        assertEquals(Integer.valueOf(3), warmer.warmUp(3).get(10, TimeUnit.SECONDS));
+        assertEquals(4, ambit.count("HEAD /ambit"));
+    }
+
+    @Test
+    public void testOpensASingleConnection() throws Exception {
+        ConnectionWarmer warmer = new ConnectionWarmer(httpClient, ambit.getBasePath());
+        assertEquals(Integer.valueOf(1), warmer.warmUp(1).get(10, TimeUnit.SECONDS));
+        assertEquals(1, ambit.count("HEAD /ambit"));
+    }
+
+    @Test
+    public void testFailsWhenNoConnectionCanBeOpened() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ConnectionWarmer warmer = new ConnectionWarmer(httpClient, "http://127.0.0.1:" + port + "/ambit");
+        try {
+            warmer.warmUp(2).get(10, TimeUnit.SECONDS);
+            fail("Nothing listens on the port");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof AmbitClientException);
+        }
+    }
+
+    @Test
+    public void testFailsWhenTheHostCannotBeResolved() throws Exception {
+        ConnectionWarmer warmer = new ConnectionWarmer(httpClient, "http://ambit.invalid/ambit");
+        try {
+            warmer.warmUp(2).get(10, TimeUnit.SECONDS);
+            fail("The host does not exist");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof AmbitClientException);
+            assertEquals("Cannot resolve Ambit host ambit.invalid", ex.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class FuturesTest {
+
+    @Test
+    public void testThenApplyCancelsTheSource() {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        Futures.thenApply(source, String::length).cancel(true);
+        assertTrue(source.isCancelled());
+    }
+
+    @Test
+    public void testThenComposeCancelsTheSourceAndSkipsTheNextStage() {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        AtomicBoolean called = new AtomicBoolean();
+        CompletableFuture<Integer> result = Futures.thenCompose(source, (value) -> {
+            called.set(true);
+            return CompletableFuture.completedFuture(value.length());
+        });
+        result.cancel(true);
+        assertTrue(source.isCancelled());
+        assertFalse(called.get());
+    }
+
+    @Test
+    public void testThenComposeCancelsTheNextStage() {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<Integer> next = new CompletableFuture<>();
+        CompletableFuture<Integer> result = Futures.thenCompose(source, (value) -> next);
+        source.complete("a");
+        result.cancel(true);
+        assertTrue(next.isCancelled());
+    }
+
+    @Test
+    public void testThenComposePassesFailuresUnwrapped() throws Exception {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<Integer> result = Futures.thenCompose(source, (value) -> {
+            throw new IllegalStateException("broken");
+        });
+        source.complete("a");
+        try {
+            result.get();
+            fail("The next stage threw");
+        } catch (ExecutionException ex) {
+            assertEquals(IllegalStateException.class, ex.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void testAllOfCancelsLastFirst() {
+        List<String> cancelled = new ArrayList<>();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (String name : Arrays.asList("a", "b", "c")) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.whenComplete((value, ex) -> cancelled.add(name));
+            futures.add(future);
+        }
+        futures.get(0).complete("a");
+        Futures.allOf(futures).cancel(true);
+        assertEquals(Arrays.asList("a", "c", "b"), cancelled);
+        assertTrue(futures.get(1).isCancelled());
+        assertFalse(futures.get(0).isCancelled());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ *   Ambit Client
+ *
+ *   Ambit Client is licensed by GPL v3 as specified hereafter. Additional components may ship
+ *   with some other licence as will be specified therein.
+ *
+ *   Copyright (C) 2016 KinkyDesign
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Source code:
+ *   The source code of Ambit Client is available on github at:
+ *   https://github.com/KinkyDesign/AmbitClient
+ *   All source files of Ambit Client that are stored on github are licensed
+ *   with the aforementioned licence.
+ *
+ */
+package org.jaqpot.ambitclient.util;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Angelos Valsamis
+ * @author Charalampos Chomenidis
+ */
+public class RetryAfterTest {
+
+    private static HttpHeaders retryAfter(String value) {
+        return new DefaultHttpHeaders().add(HttpHeaders.Names.RETRY_AFTER, value);
+    }
+
+    @Test
+    public void testParsesSeconds() {
+        assertEquals(3000, RetryAfter.millis(retryAfter("3"), 0));
+        assertEquals(0, RetryAfter.millis(retryAfter("-5"), 0));
+    }
+
+    @Test
+    public void testParsesAnHttpDate() {
+        long now = 1500000000000L;
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(now + 90000).atZone(ZoneOffset.UTC));
+        assertEquals(90000, RetryAfter.millis(retryAfter(date), now));
+        assertEquals(0, RetryAfter.millis(retryAfter(date), now + 120000));
+    }
+
+    @Test
+    public void testIgnoresMissingOrMalformedValues() {
+        assertEquals(-1, RetryAfter.millis(null, 0));
+        assertEquals(-1, RetryAfter.millis(new DefaultHttpHeaders(), 0));
+        assertEquals(-1, RetryAfter.millis(retryAfter("soon"), 0));
+    }
+}